@@ -20,6 +20,8 @@
 
 package apps.openflow;
 
+import java.util.Collection;
+
 import events.openflow.LLDPPacketInEvent;
 import events.openflow.PacketInEvent;
 import events.openflow.PacketOutEvent;
@@ -68,8 +70,10 @@ public class DiscoveryApp extends App {
 	//. Handle the switches specified in the sws.removed
 	//. Delete all obselete links which involve the removed switch
 	if (sws.removed.size() > 0) {
+	    //. getAllLinks takes the read lock, so call it before locking for write
+	    Collection<ConnectivityLocalView.Link> all = conn.getAllLinks();
 	    conn.acquireWrite();
-	    for (ConnectivityLocalView.Link link : conn.getAllLinks()) {
+	    for (ConnectivityLocalView.Link link : all) {
 		if (null != sws.removed.get(link.A) || null != sws.removed.get(link.B)) {
 		    conn.removeLink(link);
 		}
@@ -57,6 +57,7 @@ public class LearningSwitchesApp extends App {
 	FlowConfigView config = new FlowConfigView();
 	PacketsOutView pkts = new PacketsOutView();
 
+	long start = pis.isAdaptive() ? System.nanoTime() : 0;
 	LinkedList<PacketInEvent> work = null;
 	synchronized (pis.queues) {
 	    work = pis.queues.removeFirst();
@@ -71,9 +72,13 @@ public class LearningSwitchesApp extends App {
 								 pi.flow.dlSrc[3], pi.flow.dlSrc[4], pi.flow.dlSrc[5])
 				       +" at "+pi.dpid+" ("+pi.inPort+")");
 	    } catch (NullPointerException e) {
+		if (Parameters.useMemoryMgnt) {
+		    Parameters.am.memMgr.freePacketInEvent(pi);
+		}
 		continue;
+	    } finally {
+		macs.releaseWrite();
 	    }
-	    macs.releaseWrite();
 	    Integer outPort = macs.getMACLocation(pi.dpid, pi.flow.dlDst);
 	    if (null != outPort) {
 		FlowModEvent fm = null;
@@ -84,8 +89,14 @@ public class LearningSwitchesApp extends App {
 		}
 
 		fm.xid = pi.xid;
-		fm.flow = pi.flow;
+		//. The pooled PacketIn, and its FlowInfo, is reused once freed
+		if (Parameters.useMemoryMgnt) {
+		    fm.flow.copyFrom(pi.flow);
+		} else {
+		    fm.flow = pi.flow;
+		}
 		fm.dpid = pi.dpid;
+		fm.deadline = pi.deadline;
 		fm.inPort = pi.inPort;
 		fm.cookie = nextCookie();
 		fm.outPort = outPort.intValue();
@@ -98,13 +109,13 @@ public class LearningSwitchesApp extends App {
 		fm.reserved = 0;
 
 		if (Parameters.useMemoryMgnt) {
-		    PacketOutEvent.setOutputAction(outPort.intValue(), fm.actions[0]);
+		    PacketOutEvent.setOutputAction(outPort.intValue(), Parameters.am.memMgr.allocActions(fm, 1)[0]);
 		} else {
 		    fm.actions = new PacketOutEvent.Action[1];
 		    fm.actions[0] = PacketOutEvent.makeOutputAction(outPort.intValue());
 		}
 
-		fm.actionsLen = fm.actions[0].len;
+		fm.computeActionsLen();
 		
 		config.addFlowModEvent(fm);
 	    }
@@ -118,21 +129,31 @@ public class LearningSwitchesApp extends App {
 		}
 		po.xid = pi.xid;
 		po.dpid = pi.dpid;
+		po.deadline = pi.deadline;
 		po.bufferId = pi.bufferId;
 		po.inPort = pi.inPort;
 		po.dataLen = pi.totalLen;
 		po.data = pi.data;
+		if (null != po.data) {
+		    po.data.retain();
+		}
 
 		if (Parameters.useMemoryMgnt) {
 		    PacketOutEvent.setOutputAction(null==outPort?OFPConstants.OfpPort.OFPP_FLOOD:outPort.intValue(),
-						   po.actions[0]);
+						   Parameters.am.memMgr.allocActions(po, 1)[0]);
 		} else {
 		    po.actions = new PacketOutEvent.Action[1];
 		    po.actions[0] = PacketOutEvent.makeOutputAction(null==outPort?OFPConstants.OfpPort.OFPP_FLOOD:outPort.intValue());
 		}
-		po.actionsLen = po.actions[0].len;
+		po.computeActionsLen();
 		pkts.addPacketOutEvent(po);
 	    }
+	    if (Parameters.useMemoryMgnt) {
+		Parameters.am.memMgr.freePacketInEvent(pi);
+	    }
+	}
+	if (pis.isAdaptive()) {
+	    pis.batchProcessed(work.size(), System.nanoTime() - start);
 	}
 
 	ViewsIOBucket output = new ViewsIOBucket();
@@ -50,6 +50,10 @@ public class LocationManagementApp extends App {
 	}
 		
 	FlowsInView fis = new FlowsInView();
+	if (pis.isAdaptive()) {
+	    fis.source = pis;
+	    fis.batchStart = System.nanoTime();
+	}
 		
 	LinkedList<PacketInEvent> work = null;
 	synchronized (pis.queues) {
@@ -69,9 +73,13 @@ public class LocationManagementApp extends App {
 				
 		}
 	    } catch (NullPointerException e) {
+		if (Parameters.useMemoryMgnt) {
+		    Parameters.am.memMgr.freePacketInEvent(pi);
+		}
 		continue;
+	    } finally {
+		hosts.releaseWrite();
 	    }
-	    hosts.releaseWrite();
 	    RegisteredHostsView.Location dst = hosts.getHostLocation(pi.flow.dlDst);
 	    if (null == dst) {
 		if (Utilities.whetherMACBroadCast(pi.flow.dlDst)) {
@@ -24,6 +24,8 @@ import events.openflow.*;
 import drivers.OFPConstants;
 import sys.Utilities;
 import sys.Parameters;
+import sys.Pool;
+import sys.Constants;
 import views.ViewsIOBucket;
 import views.openflow.*;
 import apps.App;
@@ -36,6 +38,14 @@ import headers.LLDPHeader;
  */
 public class ProbeApp extends App {
     public static final int DEFAULT_TTL = 255;
+    /** Name of the pool of LLDP PacketOuts, declared in the DAG configuration */
+    public static final String POOL_NAME = "lldp_probes";
+
+    /** Reused for every probe, the values are copied into the payload right away */
+    private final LLDPHeader.TLV tlv = new LLDPHeader.TLV();
+    private final byte[] chassisId = new byte[Long.SIZE/8];
+    private final byte[] portId = new byte[Short.SIZE/8];
+    private final byte[] ttl = new byte[Short.SIZE/8];
     
     @Override
 	public ViewsIOBucket process(ViewsIOBucket input) {
@@ -69,24 +79,43 @@ public class ProbeApp extends App {
     private PacketOutEvent constructLLDPPacket(SwitchJoinEvent sw, SwitchJoinEvent.PhysicalPort port) {
 	//. TODO: Currently not compatible to standard LLDP, nor to NOX
 	//. right now just a temporary simplified implementation for Maestro
-	PacketOutEvent ret = new PacketOutEvent();
+	PacketOutEvent ret = null;
+	Pool<PacketOutEvent> pool = null;
+	if (Parameters.useMemoryMgnt) {
+	    pool = Parameters.am.memMgr.getPool(POOL_NAME, PacketOutEvent.class);
+	}
+	if (null != pool) {
+	    ret = pool.alloc();
+	} else {
+	    ret = new PacketOutEvent();
+	}
 	ret.dpid = sw.dpid;
+	ret.deadline = Constants.NO_DEADLINE;
 	ret.bufferId = OFPConstants.OP_UNBUFFERED_BUFFER_ID;
 	ret.inPort = OFPConstants.OfpPort.OFPP_CONTROLLER;
-	ret.actions = new PacketOutEvent.Action[1];
-	ret.actions[0] = PacketOutEvent.makeOutputAction(port.portNo);
-	ret.actionsLen = ret.actions[0].len;
+	//. A pooled PacketOut keeps its action and payload from the last probe
+	if (null == ret.actions) {
+	    ret.actions = new PacketOutEvent.Action[1];
+	    ret.actions[0] = new PacketOutEvent.Action();
+	}
+	PacketOutEvent.setOutputAction(port.portNo, ret.actions[0]);
+	ret.computeActionsLen();
 		
 	//. The data section contains: [dstMAC(6) srcMAC(6) ethType(2) chassisId(2+long) portId(2+unsigned short) ttl(2+unsigned short) end(2)]
 	ret.dataLen = OFPConstants.OfpConstants.OFP_ETH_ALEN*2 + 2 + 2 + Long.SIZE/8 + 2 + Short.SIZE/8 + 2 + Short.SIZE/8 + 2;
 	//ret.data = new byte[ret.dataLen];
-	ret.data = new PacketInEvent.DataPayload(ret.dataLen);
+	if (null == ret.data) {
+	    ret.data = new PacketInEvent.DataPayload(ret.dataLen);
+	}
 	int index = 0;
 	for (int i=0;i<OFPConstants.OfpConstants.OFP_ETH_ALEN;i++) {
 	    try {
 		ret.data.data[OFPConstants.OfpConstants.OFP_ETH_ALEN+i] = (byte)port.hwAddr[i];
 	    } catch (NullPointerException e) {
 		Utilities.printlnDebug("in constructing LLDP: port "+port+" does not exist for switch "+sw.dpid);
+		if (null != pool) {
+		    pool.free(ret);
+		}
 		return null;
 	    }
 	    ret.data.data[i] = OFPConstants.OfpConstants.NDP_MULTICAST[i];
@@ -102,22 +131,21 @@ public class ProbeApp extends App {
 	index += Long.SIZE/8;
 	Utilities.setBytesInt(ret.data.data, index, port.portNo);
 	*/
-	LLDPHeader.TLV tlv = new LLDPHeader.TLV();
 	tlv.type = LLDPHeader.TLV_TYPE_CHASSIS_ID;
 	tlv.length = Long.SIZE/8;
-	tlv.value = new byte[Long.SIZE/8];
+	tlv.value = chassisId;
 	Utilities.setNetworkBytesUint64(tlv.value, 0, sw.dpid);
 	index = tlv.convertToBytes(ret.data.data, index);
 
 	tlv.type = LLDPHeader.TLV_TYPE_PORT_ID;
 	tlv.length = Short.SIZE/8;
-	tlv.value = new byte[Short.SIZE/8];
+	tlv.value = portId;
 	Utilities.setNetworkBytesUint16(tlv.value, 0, port.portNo);
 	index = tlv.convertToBytes(ret.data.data, index);
 
 	tlv.type = LLDPHeader.TLV_TYPE_TTL;
 	tlv.length = Short.SIZE/8;
-	tlv.value = new byte[Short.SIZE/8];
+	tlv.value = ttl;
 	Utilities.setNetworkBytesUint16(tlv.value, 0, DEFAULT_TTL);
 	index = tlv.convertToBytes(ret.data.data, index);
 
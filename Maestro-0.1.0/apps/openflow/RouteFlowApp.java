@@ -48,51 +48,17 @@ public class RouteFlowApp extends App {
 
 	FlowConfigView config = new FlowConfigView();
 	PacketsOutView pkts = new PacketsOutView();
+	long now = Parameters.shedExpired ? System.nanoTime() : 0;
 	for (FlowsInView.FlowIn fl : fis.queue) {
-	    //. This is a broadcast packet, send it out to OFPP_FLOOD
-	    if (fl.dst == RegisteredHostsView.MAC_Broad_Cast) {
-		config.addFlowModEvent(createFlowModAdd(fl.pi, fl.pi.dpid, OFPConstants.OfpPort.OFPP_FLOOD));
-		addPacketOut(fl.pi, OFPConstants.OfpPort.OFPP_FLOOD, pkts);
-	    } else if (fl.dst == RegisteredHostsView.Location_Unknown) {
-		addPacketOut(fl.pi, OFPConstants.OfpPort.OFPP_FLOOD, pkts);
-	    } else { //. Regular packet
-		long from = fl.pi.dpid;
-		long to = fl.dst.dpid;
-		RoutingIntraView.Route rtv = rt.getNextHop(from, to);
-		long current = from;
-		if (rtv == null) {
-		    //. Right now we are at the destination switch
-		    //. Otherwise it is still in transient state
-		    if (from == to) {
-			//. Make sure the inport and outport are different
-			if (fl.pi.inPort != fl.dst.port) {
-			    //. Add the flow entry
-			    config.addFlowModEvent(createFlowModAdd(fl.pi, from, fl.dst.port));
-			    addPacketOut(fl.pi, fl.dst.port, pkts);
-			}
-		    }
-		    continue;
-		}
-			
-		addPacketOut(fl.pi, rtv.port, pkts);
-			
-		long next = rtv.next;
-		while (current != to) {
-		    config.addFlowModEvent(createFlowModAdd(fl.pi, current, rtv.port));
-		    rtv = rt.getNextHop(next, to);
-		    //. Still in transient state
-		    if (rtv == null) {
-			break;
-		    }
-		    current = next;
-		    next = rtv.next;
-		}
-
-		if (Parameters.useMemoryMgnt) {
-		    Parameters.am.memMgr.freePacketInEvent(fl.pi);
-		}
+	    route(fl, rt, now, config, pkts);
+	    //. Every PacketOut created above holds its own reference to the payload
+	    if (Parameters.useMemoryMgnt) {
+		Parameters.am.memMgr.freePacketInEvent(fl.pi);
 	    }
 	}
+	if (null != fis.source) {
+	    fis.source.batchProcessed(fis.queue.size(), System.nanoTime() - fis.batchStart);
+	}
 		
 	ViewsIOBucket output = new ViewsIOBucket();
 	output.addView(0, config);
@@ -100,6 +66,58 @@ public class RouteFlowApp extends App {
 	return output;
     }
 
+    private void route(FlowsInView.FlowIn fl, RoutingIntraView rt, long now,
+		       FlowConfigView config, PacketsOutView pkts) {
+	//. The flow-setup deadline has already passed, shed the route
+	//. computation and simply flood the packet
+	if (Parameters.shedExpired && now > fl.pi.deadline) {
+	    addPacketOut(fl.pi, OFPConstants.OfpPort.OFPP_FLOOD, pkts);
+	    synchronized (Parameters.shedCount) {
+		Parameters.shedCount.value ++;
+	    }
+	    return;
+	}
+	//. This is a broadcast packet, send it out to OFPP_FLOOD
+	if (fl.dst == RegisteredHostsView.MAC_Broad_Cast) {
+	    config.addFlowModEvent(createFlowModAdd(fl.pi, fl.pi.dpid, OFPConstants.OfpPort.OFPP_FLOOD));
+	    addPacketOut(fl.pi, OFPConstants.OfpPort.OFPP_FLOOD, pkts);
+	} else if (fl.dst == RegisteredHostsView.Location_Unknown) {
+	    addPacketOut(fl.pi, OFPConstants.OfpPort.OFPP_FLOOD, pkts);
+	} else { //. Regular packet
+	    long from = fl.pi.dpid;
+	    long to = fl.dst.dpid;
+	    RoutingIntraView.Route rtv = rt.getNextHop(from, to);
+	    long current = from;
+	    if (rtv == null) {
+		//. Right now we are at the destination switch
+		//. Otherwise it is still in transient state
+		if (from == to) {
+		    //. Make sure the inport and outport are different
+		    if (fl.pi.inPort != fl.dst.port) {
+			//. Add the flow entry
+			config.addFlowModEvent(createFlowModAdd(fl.pi, from, fl.dst.port));
+			addPacketOut(fl.pi, fl.dst.port, pkts);
+		    }
+		}
+		return;
+	    }
+			
+	    addPacketOut(fl.pi, rtv.port, pkts);
+			
+	    long next = rtv.next;
+	    while (current != to) {
+		config.addFlowModEvent(createFlowModAdd(fl.pi, current, rtv.port));
+		rtv = rt.getNextHop(next, to);
+		//. Still in transient state
+		if (rtv == null) {
+		    break;
+		}
+		current = next;
+		next = rtv.next;
+	    }
+	}
+    }
+
     private FlowModEvent createFlowModAdd(PacketInEvent pi, long dpid, int port) {
 	FlowModEvent fm = null;
 	if (Parameters.useMemoryMgnt) {
@@ -109,8 +127,14 @@ public class RouteFlowApp extends App {
 	}
 		
 	fm.xid = pi.xid;
-	fm.flow = pi.flow;
+	//. The pooled PacketIn, and its FlowInfo, is reused once freed
+	if (Parameters.useMemoryMgnt) {
+	    fm.flow.copyFrom(pi.flow);
+	} else {
+	    fm.flow = pi.flow;
+	}
 	fm.dpid = dpid;
+	fm.deadline = pi.deadline;
 	fm.inPort = pi.inPort;
 	fm.cookie = nextCookie();
 	fm.outPort = port;
@@ -123,13 +147,13 @@ public class RouteFlowApp extends App {
 	fm.reserved = 0;
 		
 	if (Parameters.useMemoryMgnt) {
-	    PacketOutEvent.setOutputAction(port, fm.actions[0]);
+	    PacketOutEvent.setOutputAction(port, Parameters.am.memMgr.allocActions(fm, 1)[0]);
 	} else {
 	    fm.actions = new PacketOutEvent.Action[1];
 	    fm.actions[0] = PacketOutEvent.makeOutputAction(port);
 	}
 		
-	fm.actionsLen = fm.actions[0].len;
+	fm.computeActionsLen();
 	return fm;
     }
 
@@ -142,18 +166,22 @@ public class RouteFlowApp extends App {
 	}
 	po.xid = pi.xid;
 	po.dpid = pi.dpid;
+	po.deadline = pi.deadline;
 	po.bufferId = pi.bufferId;
 	po.inPort = pi.inPort;
 	po.dataLen = pi.totalLen;
 	po.data = pi.data;
+	if (null != po.data) {
+	    po.data.retain();
+	}
 
 	if (Parameters.useMemoryMgnt) {
-	    PacketOutEvent.setOutputAction(port, po.actions[0]);
+	    PacketOutEvent.setOutputAction(port, Parameters.am.memMgr.allocActions(po, 1)[0]);
 	} else {
 	    po.actions = new PacketOutEvent.Action[1];
 	    po.actions[0] = PacketOutEvent.makeOutputAction(port);
 	}
-	po.actionsLen = po.actions[0].len;
+	po.computeActionsLen();
 	pkts.addPacketOutEvent(po);
     }
 }
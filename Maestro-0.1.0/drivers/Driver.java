@@ -84,6 +84,15 @@ public abstract class Driver {
 		return false;
 	}
 
+	/**
+	 * Resume the driver if its own admission checks allow it, e.g. once a
+	 * memory pool is no longer pressing it. Drivers with such checks
+	 * should override this
+	 */
+	public boolean tryResume() {
+		return resume();
+	}
+
 	/**
 	 * Start the driver execution
 	 */
@@ -96,6 +105,21 @@ public abstract class Driver {
 	 * @return true if successful, false otherwise
 	 */
 	abstract public boolean commitEvent(LinkedList<Event> events);
+
+	/**
+	 * Start a commit group: events committed by the calling thread may be
+	 * held back and merged, until endCommitGroup sends them together.
+	 * Drivers which do not merge commits need not override these
+	 */
+	public void beginCommitGroup() {
+	}
+
+	/**
+	 * End the commit group started by beginCommitGroup, and send all
+	 * events held back in it
+	 */
+	public void endCommitGroup() {
+	}
 	
 	/**
 	 * Print some infomation
@@ -29,6 +29,7 @@ import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.Random;
 import java.util.Set;
@@ -41,6 +42,7 @@ import events.openflow.PacketOutEvent;
 import events.openflow.SwitchJoinEvent;
 import events.openflow.ToSpecificSwitchEvent;
 import sys.Constants;
+import sys.DeadlineTask;
 import sys.Parameters;
 import sys.Utilities;
 import drivers.OFPConstants;
@@ -65,10 +67,7 @@ public class openflow extends Driver {
 	synchronized(pendingTasks) {
 	    pendingTasks.value --;
 
-	    //. Otherwise the suspend created by the ApplicatinonManager will be suppressed by this resmue
-	    if (pendingTasks.value <= Parameters.queueUpperBound /*&& Parameters.am.running.size() < Parameters.maxWaitingDAGIns*/) {
-		resume();
-	    }
+	    tryResume();
 	    /*
 	      if (0 == pendingTasks.value) {
 	      Parameters.pipeDrained ++;
@@ -77,6 +76,18 @@ public class openflow extends Driver {
 	}
     }
 	
+    @Override
+	public boolean tryResume() {
+	synchronized(pendingTasks) {
+	    //. Otherwise the suspend created by the ApplicatinonManager will be suppressed by this resmue
+	    if (pendingTasks.value <= Parameters.queueUpperBound && !Parameters.memoryPressure
+		/*&& Parameters.am.running.size() < Parameters.maxWaitingDAGIns*/) {
+		return resume();
+	    }
+	}
+	return false;
+    }
+	
     private static class Switch {
     	public class WorkerThread implements Runnable {
 	    openflow of;
@@ -164,6 +175,12 @@ public class openflow extends Driver {
     private HashMap<Long, Switch> dpid2switch;
     private HashMap<SocketChannel, Switch> chnl2switch;
     private Selector s;
+
+    /** The thread in a commit group, and the events it committed so far by dpid */
+    private Thread groupOwner = null;
+    private LinkedHashMap<Long, LinkedList<Event>> groupEvents = new LinkedHashMap<Long, LinkedList<Event>>();
+    /** Whether the group committed any PacketOuts, for the throughput measurement */
+    private boolean groupPacketOuts = false;
 	
     public int SendPktOut(long dpid, ByteBuffer pkt, int length) {
 	long before = 0;
@@ -230,7 +247,8 @@ public class openflow extends Driver {
 			    if (Parameters.divide == 0) {
 				handleMessage(sw, sw.channel, buffer, size);
 			    } else {
-				if (pendingTasks.value > Parameters.queueUpperBound) {
+				if (pendingTasks.value > Parameters.queueUpperBound
+				    || Parameters.memoryPressure) {
 				    suspend();
 				}
 							
@@ -414,12 +432,19 @@ public class openflow extends Driver {
     }
 
     public void handlePacketIn(Switch sw, byte[] buffer, int pos, int length) {
+	long arrival = System.nanoTime();
 	PacketInEvent pi;
 	if (Parameters.useMemoryMgnt) {
 	    pi = Parameters.am.memMgr.allocPacketInEvent();
 	} else {
 	    pi = new PacketInEvent();
 	}
+	pi.arrival = arrival;
+	if (Parameters.flowSetupDeadline > 0) {
+	    pi.deadline = arrival + Parameters.flowSetupDeadline;
+	} else {
+	    pi.deadline = Constants.NO_DEADLINE;
+	}
     	
     	pi.xid = Utilities.getNetworkBytesUint32(buffer, pos+4);
     	pos += OFPConstants.OfpConstants.OFP_HEADER_LEN;
@@ -458,7 +483,7 @@ public class openflow extends Driver {
 	    pi.data = new PacketInEvent.DataPayload(pi.totalLen);
 	}
 
-	Utilities.memcpy(pi.data.data, 0, buffer, pos, pi.totalLen);
+	pi.data.copyFrom(buffer, pos, pi.totalLen);
 	////////////////////////////////
 
 	//. Currently assume that all packets are ethernet frames
@@ -470,6 +495,9 @@ public class openflow extends Driver {
 	    LLDPPacketInEvent lldp = new LLDPPacketInEvent();
 	    if(!(eth.inner instanceof LLDPHeader)) {
 		Utilities.printlnDebug("The LLDP packet is not correctly formated");
+		if (Parameters.useMemoryMgnt) {
+		    Parameters.am.memMgr.freePacketInEvent(pi);
+		}
 		return;
 	    }
 	    LLDPHeader lldpHeader = (LLDPHeader)eth.inner;
@@ -479,6 +507,10 @@ public class openflow extends Driver {
 	    
 	    lldp.dstDpid =pi.dpid;
 	    lldp.dstPort = pi.inPort;
+	    //. The LLDP event copies everything it needs, the PacketIn is done
+	    if (Parameters.useMemoryMgnt) {
+		Parameters.am.memMgr.freePacketInEvent(pi);
+	    }
 	    if (sw.dpid == 0) {
 		synchronized(sw.lldpQueue) {
 		    sw.lldpQueue.addLast(lldp);
@@ -531,31 +563,24 @@ public class openflow extends Driver {
 	if (e == null) {
 	    return false;
 	}
+	if (groupOwner == Thread.currentThread() && e instanceof ToSpecificSwitchEvent) {
+	    //. Merge with what the group already has for this switch, keeping the order
+	    long dpid = ((ToSpecificSwitchEvent)e).dpid;
+	    //. The list belongs to the view, so the group keeps its own
+	    LinkedList<Event> held = groupEvents.get(dpid);
+	    if (null == held) {
+		held = new LinkedList<Event>();
+		groupEvents.put(dpid, held);
+	    }
+	    held.addAll(events);
+	    if (e instanceof PacketOutEvent) {
+		groupPacketOuts = true;
+	    }
+	    return true;
+	}
 	if (e instanceof PacketOutEvent) {
 	    boolean ret = processToSpecificSwitchEvent(events);
-
-	    //. Performance measuring code
-	    if (Parameters.count.value >= Parameters.countDone) {
-		long theCount = Parameters.count.value;
-		Parameters.count.value = (long)0;			    
-		if (Parameters.warmuped) {
-		    long time = System.nanoTime() - Parameters.before;
-		    Utilities.Log().println(1000000000*theCount/time);
-		    //Utilities.Log().println(Parameters.pipeDrained);
-		    //Utilities.Log().println(Parameters.waiting+" "+Parameters.running);
-		    Utilities.Log().flush();
-		} else {
-		    Parameters.warmuped = true;
-		}
-		Parameters.blocked.value = (long)0;
-		Parameters.ran.value = (long)0;
-		Parameters.before = (long)0;
-		Parameters.pipeDrained = 0;
-		Parameters.waiting = (long)0;
-		Parameters.running = (long)0;
-	    }
-	    //. End of performance measuring code
-	    
+	    measureThroughput();
 	    return ret;
 	}
 	if (e instanceof FlowModEvent) {
@@ -564,10 +589,66 @@ public class openflow extends Driver {
 	return true;
     }
 
+    /** Log the PacketOut throughput every Parameters.countDone PACKET_INs */
+    private void measureThroughput() {
+	//. Performance measuring code
+	if (Parameters.count.value >= Parameters.countDone) {
+	    long theCount = Parameters.count.value;
+	    Parameters.count.value = (long)0;
+	    if (Parameters.warmuped) {
+		long time = System.nanoTime() - Parameters.before;
+		Utilities.Log().println(1000000000*theCount/time);
+		//Utilities.Log().println(Parameters.pipeDrained);
+		//Utilities.Log().println(Parameters.waiting+" "+Parameters.running);
+		Utilities.Log().flush();
+	    } else {
+		Parameters.warmuped = true;
+	    }
+	    Parameters.blocked.value = (long)0;
+	    Parameters.ran.value = (long)0;
+	    Parameters.before = (long)0;
+	    Parameters.pipeDrained = 0;
+	    Parameters.waiting = (long)0;
+	    Parameters.running = (long)0;
+	}
+	//. End of performance measuring code
+    }
+
+    @Override
+	public void beginCommitGroup() {
+	groupOwner = Thread.currentThread();
+    }
+
+    @Override
+	public void endCommitGroup() {
+	groupOwner = null;
+	//. A switch may get both FlowMods and PacketOuts in one list, which
+	//. processToSpecificSwitchEvent sends together
+	for (LinkedList<Event> events : groupEvents.values()) {
+	    processToSpecificSwitchEvent(events);
+	}
+	groupEvents.clear();
+	if (groupPacketOuts) {
+	    groupPacketOuts = false;
+	    measureThroughput();
+	}
+    }
+
     class Partition {
 	public LinkedList<Event> es = new LinkedList<Event>();
 	public int totalLength = 0;
 	public long dpid;
+	/** The earliest deadline among the events in this partition */
+	public long deadline = Constants.NO_DEADLINE;
+
+	/** Count this partition as a deadline miss if it is sent too late */
+	public void checkDeadline() {
+	    if (deadline != Constants.NO_DEADLINE && System.nanoTime() > deadline) {
+		synchronized (Parameters.deadlineMisses) {
+		    Parameters.deadlineMisses.value ++;
+		}
+	    }
+	}
 		
 	public ByteBuffer toPacket() {
 	    ByteBuffer pkt = ByteBuffer.allocate(totalLength);
@@ -581,7 +662,6 @@ public class openflow extends Driver {
 			Parameters.am.memMgr.freeFlowModEvent((FlowModEvent)tsse);
 		    }
 		    if (tsse instanceof PacketOutEvent) {
-			Parameters.am.memMgr.freePacketInEventDataPayload(((PacketOutEvent)tsse).data);
 			Parameters.am.memMgr.freePacketOutEvent((PacketOutEvent)tsse);
 		    }
 		}
@@ -599,12 +679,15 @@ public class openflow extends Driver {
 	
     private boolean processToSpecificSwitchEvent(LinkedList<Event> events) {
 
-	class WorkerThread implements Runnable {
+	class WorkerThread implements DeadlineTask {
 	    openflow of;
 	    Partition pt = null;
 	    public WorkerThread(openflow o) {
 		of = o;
 	    }
+	    public long getDeadline() {
+		return pt.deadline;
+	    }
 	    public void run() {
 		long before = 0;
 		if (Parameters.measurePerf) {
@@ -625,6 +708,7 @@ public class openflow extends Driver {
 		    Parameters.c3 += pt.es.size();
 		}
 		synchronized(pt) {
+		    pt.checkDeadline();
 		    if (Parameters.batchOutput) {
 			ByteBuffer pkt = pt.toPacket();
 			of.SendPktOut(pt.dpid, pkt, pkt.array().length);
@@ -639,7 +723,6 @@ public class openflow extends Driver {
 				    Parameters.am.memMgr.freeFlowModEvent((FlowModEvent)tsse);
 				}
 				if (tsse instanceof PacketOutEvent) {
-				    Parameters.am.memMgr.freePacketInEventDataPayload(((PacketOutEvent)tsse).data);
 				    Parameters.am.memMgr.freePacketOutEvent((PacketOutEvent)tsse);
 				}
 			    }
@@ -665,10 +748,14 @@ public class openflow extends Driver {
 	for (Event e : events) {
 	    ToSpecificSwitchEvent tsse = (ToSpecificSwitchEvent)e;
 	    pt.totalLength += tsse.getLength();
+	    if (tsse.deadline < pt.deadline) {
+		pt.deadline = tsse.deadline;
+	    }
 	}
 	pt.es = events;
 		
 	if (Parameters.divide == 0) {
+	    pt.checkDeadline();
 	    if (Parameters.batchOutput) {
 		ByteBuffer pkt = pt.toPacket();
 		SendPktOut(pt.dpid, pkt, pkt.array().length);
@@ -20,6 +20,11 @@
 
 package events;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import sys.Pool;
+
 /**
  * The kind of events that will be explicitly managed in a memory pool,
  * instead of in Java object heap
@@ -27,10 +32,33 @@ package events;
  */
 abstract public class MemoryPoolEvent extends Event {
     public int poolIdx;
-    public boolean valid;
+    /** Whether this event is in use, flipped atomically by its pool */
+    public final AtomicBoolean valid = new AtomicBoolean(false);
+    /** The registered Pool this event comes from, null for the MemoryManager's own pools */
+    public Pool<?> owner = null;
+
+    /** Number of holders of this event, only meaningful for pooled events */
+    private final AtomicInteger refCount = new AtomicInteger(0);
     
     public MemoryPoolEvent(int idx) {
 	poolIdx = idx;
-	valid = false;
+    }
+
+    /** Set the reference count of a freshly allocated event to one */
+    public void initRef() {
+	refCount.set(1);
+    }
+
+    /** One more holder of this event, it must be released by that holder too */
+    public void retain() {
+	refCount.incrementAndGet();
+    }
+
+    /**
+     * Drop one reference to this event
+     * @return true if that was the last reference, and the event can be freed
+     */
+    public boolean release() {
+	return refCount.decrementAndGet() <= 0;
     }
 }
@@ -0,0 +1,53 @@
+/*
+  ActionsEvent.java
+
+  Copyright (C) 2010  Rice University
+
+  This software is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This software is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this software; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package events.openflow;
+
+/**
+ * A switch-bound event carrying a list of actions, i.e. a FlowMod or a
+ * PacketOut. See MemoryManager.allocActions for how pooled ones get room
+ * for more than their one preallocated action
+ */
+abstract public class ActionsEvent extends ToSpecificSwitchEvent {
+    public ActionsEvent(int idx) {
+	super(idx);
+    }
+
+    public int actionsLen;
+    public PacketOutEvent.Action[] actions;
+    /** Number of valid entries in actions, 0 means all of them */
+    public int numActions = 0;
+    /** Set for pooled events, see PacketOutEvent.ActionSlab */
+    public PacketOutEvent.Action[] inlineActions;
+    public PacketOutEvent.ActionSlab actionSlab;
+
+    public int getNumActions() {
+	return numActions > 0 ? numActions : actions.length;
+    }
+
+    /** Set actionsLen to the total length of the valid actions */
+    public void computeActionsLen() {
+	int n = getNumActions();
+	actionsLen = 0;
+	for (int i=0;i<n;i++) {
+	    actionsLen += actions[i].len;
+	}
+    }
+}
@@ -27,7 +27,7 @@ import sys.Utilities;
  * Currently this is for OpenFlow Version 1.0.0
  * @author Zheng Cai  
  */
-public class FlowModEvent extends ToSpecificSwitchEvent implements Comparable<FlowModEvent> {
+public class FlowModEvent extends ActionsEvent implements Comparable<FlowModEvent> {
     public FlowModEvent() {
 	super(-1);
     }
@@ -50,8 +50,6 @@ public class FlowModEvent extends ToSpecificSwitchEvent implements Comparable<Fl
     public int outPort;
     public int flags;
     public long reserved;
-    public int actionsLen;
-    public PacketOutEvent.Action[] actions;
 	
     @Override
 	public int compareTo(FlowModEvent o) {
@@ -61,17 +59,15 @@ public class FlowModEvent extends ToSpecificSwitchEvent implements Comparable<Fl
 	
     public int getLength() {
 	int length = OFPConstants.OfpConstants.OFP_FLOW_MOD_LENGTH;
-	for (PacketOutEvent.Action act : actions) {
-	    length += act.len;
+	int n = getNumActions();
+	for (int i=0;i<n;i++) {
+	    length += actions[i].len;
 	}
 	return length;
     }
 	
     public int convertToBytes(byte[] buf, int index) {
-	int length = OFPConstants.OfpConstants.OFP_FLOW_MOD_LENGTH;
-	for (PacketOutEvent.Action act : actions) {
-	    length += act.len;
-	}
+	int length = getLength();
 	int pos = index;
 	//. ofp header
 	pos += Utilities.setNetworkBytesUint8(buf, pos, OFPConstants.OfpConstants.OFP_VERSION);
@@ -119,7 +115,9 @@ public class FlowModEvent extends ToSpecificSwitchEvent implements Comparable<Fl
 
 	//. This is only for OpenFlow 0.8.9
 	//pos += Utilities.setNetworkBytesUint32(buf, pos, reserved);
-	for (PacketOutEvent.Action act : actions) {
+	int n = getNumActions();
+	for (int i=0;i<n;i++) {
+	    PacketOutEvent.Action act = actions[i];
 	    //. Currently only support output action
 	    pos += Utilities.setNetworkBytesUint16(buf, pos, act.type);
 	    pos += Utilities.setNetworkBytesUint16(buf, pos, act.len);
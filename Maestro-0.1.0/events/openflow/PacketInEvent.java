@@ -20,10 +20,15 @@
 
 package events.openflow;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import drivers.OFPConstants;
 import events.Event;
 import events.MemoryPoolEvent;
 import headers.*;
+import sys.Constants;
+import sys.PayloadArena;
 
 /**
  * @author Zheng Cai
@@ -50,6 +55,43 @@ public class PacketInEvent extends MemoryPoolEvent {
 	    dlDst = new short[OFPConstants.OfpConstants.OFP_ETH_ALEN];
 	}
 
+	/** Clear the fields the headers fill in, before extracting a new flow */
+	public void reset() {
+	    nwSrc = 0;
+	    nwDst = 0;
+	    inPort = 0;
+	    dlVlan = 0;
+	    dlType = 0;
+	    dlVlanPcp = 0;
+	    tpSrc = 0;
+	    tpDst = 0;
+	    nwProto = 0;
+	    nwTos = 0;
+	    icmpType = 0;
+	    icmpCode = 0;
+	}
+
+	/**
+	 * Copy another flow. The MAC addresses are shared, they belong to the
+	 * EthernetHeader of the packet, which is never reused
+	 */
+	public void copyFrom(FlowInfo f) {
+	    nwSrc = f.nwSrc;
+	    nwDst = f.nwDst;
+	    inPort = f.inPort;
+	    dlVlan = f.dlVlan;
+	    dlType = f.dlType;
+	    dlVlanPcp = f.dlVlanPcp;
+	    tpSrc = f.tpSrc;
+	    tpDst = f.tpDst;
+	    dlSrc = f.dlSrc;
+	    dlDst = f.dlDst;
+	    nwProto = f.nwProto;
+	    nwTos = f.nwTos;
+	    icmpType = f.icmpType;
+	    icmpCode = f.icmpCode;
+	}
+
 	public void visit(EthernetHeader eth) {
 	    dlVlan = eth.dlVlan;
 	    dlType = eth.dlType;
@@ -109,7 +151,8 @@ public class PacketInEvent extends MemoryPoolEvent {
 	
     public static class DataPayload {
 	public int poolIdx;
-	public boolean valid;
+	/** Whether this payload is in use, flipped atomically by its pool */
+	public final AtomicBoolean valid = new AtomicBoolean(false);
 	public byte[] data;
 		
 	/** Real size of the payload
@@ -117,19 +160,79 @@ public class PacketInEvent extends MemoryPoolEvent {
 	 * So always use size
 	 */
 	public int size;
+
+	/** Which of the MemoryManager.PAYLOAD_CLASSES this payload belongs to,
+	 * -1 if it is not from a pool
+	 */
+	public int sizeClass = -1;
+
+	/** When not null, the bytes live off-heap in this arena starting
+	 * at offset, and data is not used
+	 */
+	public PayloadArena arena = null;
+	public int offset;
 		
 	public DataPayload(int s) {
 	    poolIdx = -1;
 	    data = new byte[s];
 	    size = s;
-	    valid = false;
 	}
 		
 	public DataPayload(int idx, int s) {
 	    poolIdx = idx;
 	    data = new byte[s];
 	    size = s;
-	    valid = false;
+	}
+
+	/** Number of events holding this payload, only meaningful for pooled payloads */
+	private final AtomicInteger refCount = new AtomicInteger(0);
+
+	/** Set the reference count of a freshly allocated payload to one */
+	public void initRef() {
+	    refCount.set(1);
+	}
+
+	/** One more event shares this payload, e.g. a PacketOut sending the PacketIn's data */
+	public void retain() {
+	    refCount.incrementAndGet();
+	}
+
+	/**
+	 * Drop one reference to this payload
+	 * @return true if that was the last reference, and the payload can be freed
+	 */
+	public boolean release() {
+	    return refCount.decrementAndGet() <= 0;
+	}
+
+	/** Copy length bytes from src[pos] into this payload */
+	public void copyFrom(byte[] src, int pos, int length) {
+	    if (null != arena) {
+		arena.put(offset, src, pos, length);
+	    } else {
+		System.arraycopy(src, pos, data, 0, length);
+	    }
+	}
+
+	/** Copy the whole payload into dst[pos] */
+	public void copyTo(byte[] dst, int pos) {
+	    if (null != arena) {
+		arena.get(offset, dst, pos, size);
+	    } else {
+		System.arraycopy(data, 0, dst, pos, size);
+	    }
+	}
+
+	public byte get(int i) {
+	    return null != arena ? arena.get(offset+i) : data[i];
+	}
+
+	public void set(int i, byte b) {
+	    if (null != arena) {
+		arena.put(offset+i, b);
+	    } else {
+		data[i] = b;
+	    }
 	}
     }
 	
@@ -143,6 +246,11 @@ public class PacketInEvent extends MemoryPoolEvent {
     public FlowInfo flow;
     public EthernetHeader header; //. Assume all packets are ethernet frames
 
+    /** System.nanoTime() when the driver started handling this PACKET_IN */
+    public long arrival;
+    /** Flow-setup deadline, Constants.NO_DEADLINE if none */
+    public long deadline = Constants.NO_DEADLINE;
+
     public PacketInEvent() {
 	super(-1);
 	flow = new FlowInfo();
@@ -161,6 +269,8 @@ public class PacketInEvent extends MemoryPoolEvent {
     public void extractFlowInfo(EthernetHeader eth) {
 	header = eth;
 	
+	//. Pooled FlowMods copy the FlowInfo, so it is reused along with the event
+	flow.reset();
 	flow.inPort = inPort;
 	
 	Header current = eth;
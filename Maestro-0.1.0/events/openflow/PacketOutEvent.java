@@ -20,6 +20,8 @@
 
 package events.openflow;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import events.openflow.PacketInEvent.DataPayload;
 import drivers.OFPConstants;
 import sys.Utilities;
@@ -27,7 +29,7 @@ import sys.Utilities;
 /**
  * @author Zheng Cai
  */
-public class PacketOutEvent extends ToSpecificSwitchEvent implements Comparable<PacketOutEvent> {
+public class PacketOutEvent extends ActionsEvent implements Comparable<PacketOutEvent> {
 	public PacketOutEvent() {
 		super(-1);
 	}
@@ -43,13 +45,32 @@ public class PacketOutEvent extends ToSpecificSwitchEvent implements Comparable<
 		public int max_len;
 	}
 
+	/**
+	 * A pooled array of actions, for pooled events needing more actions
+	 * than the one they are preallocated with. See MemoryManager.allocActions
+	 */
+	public static class ActionSlab {
+		public int poolIdx;
+		/** Whether this slab is in use, flipped atomically by its pool */
+		public final AtomicBoolean valid = new AtomicBoolean(false);
+		public int sizeClass;
+		public Action[] actions;
+
+		public ActionSlab(int idx, int sizeClass, int capacity) {
+			poolIdx = idx;
+			this.sizeClass = sizeClass;
+			actions = new Action[capacity];
+			for (int i=0;i<capacity;i++) {
+				actions[i] = new Action();
+			}
+		}
+	}
+
 	public long xid;
 	//public long dpid;
 	public long bufferId;
 	public int dataLen;	// Length of data
 	public int inPort;
-	public int actionsLen;
-	public Action[] actions;
 	public DataPayload data;
 	
 	@Override
@@ -75,8 +96,9 @@ public class PacketOutEvent extends ToSpecificSwitchEvent implements Comparable<
 	@Override
 	public int getLength() {
 		int length = OFPConstants.OfpConstants.OFP_PACKET_OUT_LENGTH;
-		for (PacketOutEvent.Action act : actions) {
-			length += act.len;
+		int n = getNumActions();
+		for (int i=0;i<n;i++) {
+			length += actions[i].len;
 		}
 		if (OFPConstants.OP_UNBUFFERED_BUFFER_ID == bufferId) {
 		    length += dataLen;
@@ -99,7 +121,9 @@ public class PacketOutEvent extends ToSpecificSwitchEvent implements Comparable<
 		pos += Utilities.setNetworkBytesUint32(buf, pos, bufferId);
 		pos += Utilities.setNetworkBytesUint16(buf, pos, inPort);
 		pos += Utilities.setNetworkBytesUint16(buf, pos, actionsLen);
-		for (PacketOutEvent.Action act : actions) {
+		int n = getNumActions();
+		for (int i=0;i<n;i++) {
+			PacketOutEvent.Action act = actions[i];
 			// currently only support output action
 			pos += Utilities.setNetworkBytesUint16(buf, pos, act.type);
 			pos += Utilities.setNetworkBytesUint16(buf, pos, act.len);
@@ -108,10 +132,7 @@ public class PacketOutEvent extends ToSpecificSwitchEvent implements Comparable<
 		}
 
 		if (OFPConstants.OP_UNBUFFERED_BUFFER_ID == bufferId) {
-		    // TODO: potential room for optimization
-		    for (int i=0;i<data.size;i++) {
-			buf[pos+i] = data.data[i];
-		    }
+		    data.copyTo(buf, pos);
 		    pos += data.size;
 		}
 		    
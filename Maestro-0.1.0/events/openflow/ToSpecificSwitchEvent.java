@@ -21,6 +21,7 @@
 package events.openflow;
 
 import events.MemoryPoolEvent;
+import sys.Constants;
 
 /**
  * @author Zheng Cai
@@ -30,6 +31,10 @@ abstract public class ToSpecificSwitchEvent extends MemoryPoolEvent {
 	super(idx);
     }
     public long dpid;
+
+    /** Flow-setup deadline inherited from the triggering PACKET_IN,
+     * Constants.NO_DEADLINE if none */
+    public long deadline = Constants.NO_DEADLINE;
     
     abstract public int convertToBytes(byte[] buf, int index);
     abstract public int getLength();
@@ -33,7 +33,7 @@ public class ActivationNode extends AppInstanceNode {
     Set<String> viewNames;
 
     /** Repeat timer for this activation node, if used */
-    Timer timer;
+    TimerWheel.Timeout timer;
 	
     /** Create a new instance of ActivationNode */
     public ActivationNode(String n, DAG d) {
@@ -0,0 +1,103 @@
+/*
+  AdaptiveBatcher.java
+
+  Copyright (C) 2010  Rice University
+
+  This software is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This software is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this software; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package sys;
+
+/**
+ * Picks the size of input batches against a latency target, in the AIMD
+ * style: while the workers are backlogged, batches grow by one item per
+ * flush to amortize the fixed cost of each DAG run, and whenever the first
+ * item of a batch waited more than half of the target, the size is halved.
+ * The size never exceeds Parameters.batchInputNum, nor the number of items
+ * the DAG is measured to process within the target
+ */
+public class AdaptiveBatcher {
+    /** Weight of a new sample in the average cost per item */
+    private static final double ALPHA = 0.125;
+    /** Workers with at most this many queued tasks are considered idle */
+    public static final int IDLE_QUEUE = 5;
+
+    /** Latency target in nanoseconds */
+    private final long target;
+    private volatile int limit = 1;
+    /** Moving average of the DAG cost per item in nanoseconds, 0 before any sample */
+    private double costPerItem = 0;
+
+    /**
+     * @param target the latency target in nanoseconds
+     */
+    public AdaptiveBatcher(long target) {
+	this.target = target;
+    }
+
+    /** The number of items at which the current batch should be flushed */
+    public int getLimit() {
+	return limit;
+    }
+
+    /**
+     * A batch was flushed
+     * @param size the number of items in it
+     * @param waited how long its first item waited, in nanoseconds
+     * @param queueDepth the number of tasks queued for the workers
+     * @param timed whether the flush was forced by the latency timer
+     */
+    public synchronized void flushed(int size, long waited, int queueDepth, boolean timed) {
+	if (waited > target/2) {
+	    limit = Math.max(limit/2, 1);
+	} else if (queueDepth > IDLE_QUEUE) {
+	    limit = Math.min(limit+1, getCeiling());
+	}
+	synchronized (Parameters.batchFlushes) {
+	    Parameters.batchFlushes.value ++;
+	    Parameters.batchedEvents.value += size;
+	    if (timed) {
+		Parameters.timedFlushes.value ++;
+	    }
+	}
+    }
+
+    /**
+     * The DAG finished processing a batch
+     * @param size the number of items in it
+     * @param nanos how long that took
+     */
+    public synchronized void processed(int size, long nanos) {
+	if (size <= 0) {
+	    return;
+	}
+	double sample = (double)nanos / size;
+	costPerItem = 0 == costPerItem ? sample : costPerItem + ALPHA * (sample - costPerItem);
+	limit = Math.min(limit, getCeiling());
+    }
+
+    /** Largest batch the DAG is expected to process within the target */
+    private int getCeiling() {
+	int ret = Parameters.batchInputNum;
+	if (costPerItem > 0) {
+	    ret = (int)Math.min(ret, target / costPerItem);
+	}
+	return Math.max(ret, 1);
+    }
+
+    public synchronized double getCostPerItem() {
+	return costPerItem;
+    }
+}
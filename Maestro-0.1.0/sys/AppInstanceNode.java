@@ -46,10 +46,14 @@ public class AppInstanceNode {
      * A holder for represent the IO specification for an application instance
      * pos is the position of this view instance in the application's input/output list
      * viewClassName is the name of the view instance's class
+     * viewClass, viewName and slot are resolved when the DAG is compiled
      */
     public static class IOSpecification {
 	int pos;
 	String viewClassName;
+	Class<?> viewClass;
+	String viewName;
+	int slot;
 	public IOSpecification(int p, String name) {
 	    pos = p;
 	    viewClassName = name;
@@ -65,9 +69,16 @@ public class AppInstanceNode {
 	
     /** Names of output view instances */
     HashMap<String, IOSpecification> output;
+
+    /** The input and output specifications ordered by position, built by compile() */
+    IOSpecification[] inputPlan;
+    IOSpecification[] outputPlan;
 	
     /** The in-degree of this vertex in the DAG.  Alternatively, this is the the number of applications for which this node waits before running */
     int inDegree;
+
+    /** Position of this node in its DAG, assigned by DAG.compile() */
+    int index;
 	
     /** Create a new instance of AppInstanceNode */
     public AppInstanceNode(String n, App a, DAG d) {
@@ -82,6 +93,34 @@ public class AppInstanceNode {
 	output = new HashMap<String, IOSpecification>();
     }
 
+    /**
+     * Resolve the view classes and slots of all input and output
+     * specifications once, so that running this node takes only array loads
+     */
+    void compile() {
+	inputPlan = compile(input);
+	outputPlan = compile(output);
+    }
+
+    private static IOSpecification[] compile(HashMap<String, IOSpecification> specs) {
+	IOSpecification[] ret = new IOSpecification[specs.size()];
+	for (Map.Entry<String, IOSpecification> e : specs.entrySet()) {
+	    IOSpecification spec = e.getValue();
+	    try {
+		spec.viewClass = Class.forName("views."+Parameters.bundle+"."+spec.viewClassName);
+	    } catch (ClassNotFoundException ex) {
+		Utilities.Assert(false, "View class declared by name "
+				 +spec.viewClassName+" not found");
+	    }
+	    spec.viewName = e.getKey();
+	    spec.slot = Environment.getSlot(e.getKey());
+	    Utilities.Assert(spec.pos >= 0 && spec.pos < ret.length && null == ret[spec.pos],
+			     "Invalid position "+spec.pos+" for view instance "+e.getKey());
+	    ret[spec.pos] = spec;
+	}
+	return ret;
+    }
+
     /**
      * Check whether the output views in the bucket conform with the specification
      * when creating this application instance
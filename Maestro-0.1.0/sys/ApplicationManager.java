@@ -22,11 +22,14 @@ package sys;
 
 import java.util.*;
 import java.io.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
 import apps.App;
 import views.View;
 import views.ViewsIOBucket;
 import events.Event;
+import events.MemoryPoolEvent;
 
 /**
  * The ApplicationManager manages all applications in the system, all DAGs
@@ -45,20 +48,53 @@ public class ApplicationManager extends Thread {
     public Semaphore synchro;
     // public Semaphore timing;
 
-    /** All DAGs in this system */
-    HashMap<Integer, DAG> dags;
+    /** All DAGs in this system, replaced as a whole by reloadSystem */
+    volatile HashMap<Integer, DAG> dags;
 
-    /**
-     * Hash map for events triggering, in order to make indexing the triggered
-     * DAG more quickly
-     */
-    HashMap<String, LinkedList<DAG>> triggerMap;
+    /** ID of the next DAG to load, IDs are never reused across reloads */
+    private int nextDAGid = 1;
+
+    /** The DAGs triggered by the view in each slot of the environment, built
+     * by updateTriggerMap. null for views that trigger nothing */
+    volatile DAG[][] triggersBySlot = new DAG[0][];
 
     /** Current running runtime DAGs */
     public HashMap<Integer, DAGRuntime> running;
 
-    /** Triggered but wait to run runtime DAGs */
-    public LinkedList<DAGRuntime> triggered;
+    /** Number of running DAG instances writing each view slot,
+     * protected by the monitor of running */
+    private int[] writers = new int[64];
+    /** Bit i is set if writers[i] > 0 */
+    private long[] writerMask = new long[1];
+    /** Number of running DAG instances, neither optimistic nor concurrent,
+     * reading or writing each view slot. An optimistic instance must not
+     * commit a view under them. Protected by the monitor of running */
+    private int[] holders = new int[64];
+
+    /** DAG instances which reached their terminal node and wait to be committed */
+    private ArrayList<DAGRuntime> commitQueue = new ArrayList<DAGRuntime>();
+    /** Whether a leader is committing, protected by the monitor of commitQueue */
+    private boolean committing = false;
+    /** The batch the leader is committing, and the views of it to publish */
+    private ArrayList<DAGRuntime> commitBatch = new ArrayList<DAGRuntime>();
+    private int[] commitSlots = new int[16];
+    private View[] commitViews = new View[16];
+    /** Whether each instance of commitBatch may commit */
+    private boolean[] commitValid = new boolean[16];
+    /** How many batches a leader commits before handing over the leadership */
+    public static int LEADER_BATCHES = 2;
+    /** Continues committing as the new leader, on whichever worker takes it */
+    private final Runnable leaderTask = new Runnable() {
+	    public void run() {
+		leadCommits();
+	    }
+	};
+
+    /** Triggered but wait to run runtime DAGs, by DAG id. There is at most
+     * one waiting instance of each DAG. Protected by the monitor of running */
+    private HashMap<Integer, DAGRuntime> waiting;
+    /** The waiting DAG instances blocked by a running writer of each view slot */
+    private ArrayList<ArrayDeque<DAGRuntime>> blockedOn;
 
     /** View instance names that are marked as concurrent */
     HashSet<String> concurrentNames;
@@ -66,6 +102,15 @@ public class ApplicationManager extends Thread {
     /** Thread pool */
     public TaskManager taskMgr;
 
+    /** Executor which runs each DAG node on its own virtual thread,
+     * only used when Parameters.virtualThreads is set */
+    ExecutorService virtualExec;
+
+    /** The timer wheel shared by Timer activated DAGs and any other timeouts */
+    public TimerWheel timers;
+    /** The timers of the Timer activated DAGs, cancelled when they are reloaded */
+    ArrayList<TimerWheel.Timeout> timeouts;
+
     /** Memory manager */
     public MemoryManager memMgr;
 
@@ -82,13 +127,18 @@ public class ApplicationManager extends Thread {
 	configFile = conf;
 	dags = new HashMap<Integer, DAG>();
 	running = new HashMap<Integer, DAGRuntime>();	
-	triggered = new LinkedList<DAGRuntime>();
+	waiting = new HashMap<Integer, DAGRuntime>();
+	blockedOn = new ArrayList<ArrayDeque<DAGRuntime>>();
 	synchro = new Semaphore(1);
-	triggerMap = new HashMap<String, LinkedList<DAG>>();
 	concurrentNames = new HashSet<String>();
 	if (Parameters.divide > 0) {
 	    taskMgr = new TaskManager(Parameters.divide);
 	}
+	timers = new TimerWheel(taskMgr);
+	if (Parameters.virtualThreads) {
+	    virtualExec = Executors.newThreadPerTaskExecutor(Thread.ofVirtual()
+							     .name("DAGNode #", 0).factory());
+	}
 	if (Parameters.useMemoryMgnt) {
 	    memMgr = new MemoryManager();
 	}
@@ -99,20 +149,33 @@ public class ApplicationManager extends Thread {
     }
     
     public void enqueueBindingTask(Runnable r, int priority) {
-	if (1 == Parameters.threadBind)
+	//. Virtual threads are not TaskManager workers, there is no core to bind to
+	if (1 == Parameters.threadBind && taskMgr.isWorkerThread())
 	    taskMgr.bindingExecute(r, priority);
 	else
 	    taskMgr.execute(r, priority);
     }
+
+    /**
+     * Run one DAG node. In the virtual-thread mode every node gets its own
+     * virtual thread, so that apps blocking on I/O do not stall a worker
+     */
+    public void enqueueNodeTask(DAGRuntimeThread r) {
+	if (null != virtualExec)
+	    virtualExec.execute(r);
+	else
+	    enqueueBindingTask(r, Constants.PRIORITY_MEDIUM);
+    }
     
     /**
-     * Start the ApplicationManager, and it will start the whole system TODO So
-     * it seems like you're loading all of your DAGs all at once. I believe the
-     * final version was supposed to be able to load DAGs dynamically, so I
-     * should probably think about adding this feature later.
+     * Start the ApplicationManager, and it will start the whole system.
+     * The DAGs can be loaded again later by reloadSystem
      */
     public void run() {
-	loadSystem();
+	Staging loaded = loadSystem(configFile, false);
+	loaded.apply();
+	dags = loaded.dags;
+	timeouts = loaded.timeouts;
 	updateTriggerMap();
 	if (Parameters.runConsole)
 	    console.start();
@@ -120,434 +183,602 @@ public class ApplicationManager extends Thread {
     }
 
     /**
-     * Load all bundles, views, events, DAGs, etc, specified in the configFile
+     * Load the DAGs of a configuration file again while the system keeps
+     * running, and replace all current DAGs with them. Views already in
+     * the global environment are kept with their state, only new ones are
+     * created, and so are pools. DAG instances already triggered run to
+     * completion with the old DAGs, new triggers go to the new ones
+     * @param file the configuration file, null for the current one
+     * @return false if the file could not be loaded, then nothing changed
      */
+    public synchronized boolean reloadSystem(String file) {
+	if (null == file) {
+	    file = configFile;
+	}
+	Staging loaded = loadSystem(file, true);
+	if (null == loaded) {
+	    return false;
+	}
+	loaded.apply();
+	ArrayList<TimerWheel.Timeout> oldTimeouts = timeouts;
+	dags = loaded.dags;
+	timeouts = loaded.timeouts;
+	updateTriggerMap();
+	for (TimerWheel.Timeout t : oldTimeouts) {
+	    t.cancel();
+	}
+	configFile = file;
+	return true;
+    }
 
-    private void loadSystem() {
+    /** An error in a configuration file */
+    private static class ConfigError extends Exception {
+	private static final long serialVersionUID = 1L;
 
-	try {
-	    BufferedReader input = new BufferedReader(new FileReader(configFile));
-
-	    //. 0 for nothing, 1 for bundle, 2 for views, 3 for event-view, 4 for
-	    //. DAGs
-	    int section = 0;
-	    DAG currentDAG = null;
-
-	    //. Start DAG ID from 1
-	    int currentDAGid = 1;
-	    String line = null;
-	    while ((line = input.readLine()) != null) {
-		line = Utilities.TrimConfigString(line);
-		String[] words = line.split(" ");
-		if (words.length == 0)
-		    continue;
+	ConfigError(String s) {
+	    super(s);
+	}
+    }
 
-		switch (section) {
-		case 2: // For Views
-		    if (line.compareToIgnoreCase("End Views") == 0) {
-			section = 0;
-			break;
+    private static void check(boolean b, String s) throws ConfigError {
+	if (!b) {
+	    throw new ConfigError(s);
+	}
+    }
+
+    /**
+     * What a configuration file adds to the system, collected while it is
+     * parsed. Nothing global changes before the whole file is found valid,
+     * then apply() makes all of it take effect
+     */
+    private class Staging {
+	final boolean reload;
+	String bundle = Parameters.bundle;
+	int nextDAGid = ApplicationManager.this.nextDAGid;
+	HashSet<String> concurrentNames = new HashSet<String>(ApplicationManager.this.concurrentNames);
+	HashMap<Integer, DAG> dags = new HashMap<Integer, DAG>();
+	/** New view instances by name */
+	LinkedHashMap<String, View> views = new LinkedHashMap<String, View>();
+	/** New pools, as their names, event classes and sizes */
+	ArrayList<String> poolNames = new ArrayList<String>();
+	ArrayList<Class<? extends MemoryPoolEvent>> poolClasses = new ArrayList<Class<? extends MemoryPoolEvent>>();
+	ArrayList<Integer> poolSizes = new ArrayList<Integer>();
+	/** Events, and the names of the view instances they go to */
+	ArrayList<Event> events = new ArrayList<Event>();
+	ArrayList<String> eventViews = new ArrayList<String>();
+	/** Timer activated DAGs, and their periods in milliseconds */
+	ArrayList<DAG> timed = new ArrayList<DAG>();
+	ArrayList<Long> periods = new ArrayList<Long>();
+	/** The timers started by apply() */
+	ArrayList<TimerWheel.Timeout> timeouts = new ArrayList<TimerWheel.Timeout>();
+
+	Staging(boolean r) {
+	    reload = r;
+	}
+
+	/** A view instance of this file, or one already in the system */
+	View getView(String name) {
+	    View ret = views.get(name);
+	    return null != ret ? ret : vm.global.getView(name);
+	}
+
+	/** The view instances events for name go to */
+	String[] eventTargets(String name) {
+	    if (!concurrentNames.contains(name)) {
+		return new String[] {name};
+	    }
+	    String[] ret = new String[Parameters.divide];
+	    for (int i=0;i<ret.length;i++) {
+		ret[i] = name+"_"+i;
+	    }
+	    return ret;
+	}
+
+	void apply() {
+	    Parameters.bundle = bundle;
+	    for (Map.Entry<String, View> e : views.entrySet()) {
+		vm.global.addView(e.getKey(), e.getValue());
+	    }
+	    ApplicationManager.this.concurrentNames.addAll(concurrentNames);
+	    for (int i=0;i<poolNames.size();i++) {
+		memMgr.registerPool(poolNames.get(i), poolClasses.get(i), poolSizes.get(i));
+	    }
+	    for (int i=0;i<events.size();i++) {
+		if (concurrentNames.contains(eventViews.get(i))) {
+		    vm.registerEventConcurrent(events.get(i), eventViews.get(i));
+		} else {
+		    vm.registerEvent(events.get(i), eventViews.get(i));
+		}
+	    }
+	    for (DAG d : dags.values()) {
+		d.compile();
+		for (AppInstanceNode n : d.nodes.values()) {
+		    if (null != n.app) {
+			n.app.initiate(vm, ApplicationManager.this);
 		    }
-		    Class viewClass = Class.forName("views."
-						    + Parameters.bundle + "." + words[0]);		    
-		    if (3 == words.length &&
-			words[2].compareToIgnoreCase("Concurrent") == 0 &&
-			Parameters.divide > 0) {
-			for (int i=0;i<Parameters.divide;i++) {
-			    View v = (View) viewClass.newInstance();
-			    vm.global.addView(words[1]+"_"+i, v);
-			    concurrentNames.add(words[1]);
+		}
+	    }
+	    for (int i=0;i<timed.size();i++) {
+		final DAG toRun = timed.get(i);
+		long period = periods.get(i);
+		toRun.activation.timer = timers.schedulePeriodic(new Runnable() {
+			public void run() {
+			    vm.timerStartDag(toRun);
 			}
-		    } else {
-			vm.global.addView(words[1], (View) viewClass.newInstance());
-		    }
+		    }, period, period, Constants.PRIORITY_HIGH);
+		timeouts.add(toRun.activation.timer);
+	    }
+	    ApplicationManager.this.nextDAGid = nextDAGid;
+	}
+    }
+
+    /**
+     * Load all bundles, views, events, DAGs, etc, specified in a configuration file
+     * @param file the configuration file
+     * @param reload whether the system is already running. Then views and
+     * pools which exist are kept, and errors do not stop the system
+     * @return what the file adds to the system, still to be applied. null
+     * if the file could not be loaded
+     */
+    private Staging loadSystem(String file, boolean reload) {
+	Staging staged = new Staging(reload);
+	BufferedReader input = null;
+	try {
+	    input = new BufferedReader(new FileReader(file));
+	    parse(input, staged);
+	    return staged;
+	} //. end of <Try to read some input>
+	catch (ConfigError e) {
+	    loadError(reload, e.getMessage());
+	} catch (FileNotFoundException e) {
+	    loadError(reload, "Configuration File Not Found!");
+	} catch (EOFException e) {
+	    loadError(reload, "End of stream!");
+	} catch (IOException e) {
+	    loadError(reload, "IO ERROR!");
+	} catch (ClassNotFoundException e) {
+	    loadError(reload, "Class file(s) not found! "
+		      + e.getMessage());
+	} catch (InstantiationException e) {
+	    loadError(reload, "Class instantiation error!");
+	} catch (IllegalAccessException e) {
+	    loadError(reload, "Class instantiation error!");
+	} catch (RuntimeException e) {
+	    //. e.g. a malformed number, or a class of the wrong kind
+	    loadError(reload, "Parsing error: "+e);
+	} finally {
+	    if (null != input) {
+		try {
+		    input.close();
+		} catch (IOException e) {
+		}
+	    }
+	}
+	return null;
+    }
+
+    /** Parse a configuration file into staged, touching nothing global */
+    private void parse(BufferedReader input, Staging staged)
+	throws IOException, ConfigError, ClassNotFoundException,
+	       InstantiationException, IllegalAccessException {
+	boolean reload = staged.reload;
+
+	//. 0 for nothing, 1 for bundle, 2 for views, 3 for event-view, 4 for
+	//. DAGs, 5 for pools
+	int section = 0;
+	DAG currentDAG = null;
+
+	String line = null;
+	while ((line = input.readLine()) != null) {
+	    line = Utilities.TrimConfigString(line);
+	    String[] words = line.split(" ");
+	    if (words.length == 0)
+		continue;
+
+	    switch (section) {
+	    case 2: // For Views
+		if (line.compareToIgnoreCase("End Views") == 0) {
+		    section = 0;
 		    break;
-		case 3: // For Events
-		    if (line.compareToIgnoreCase("End Events") == 0) {
-			section = 0;
-			break;
-		    }
-		    // Verify that the event class does exist
-		    Class eventClass = Class.forName("events."
-						     + Parameters.bundle + "." + words[0]);
-		    Utilities.Assert(words[1].compareToIgnoreCase("by") == 0,
-				     "Second word in Events section needs to be by!");
-		    if (concurrentNames.contains(words[2])) {
-			vm.registerEventConcurrent((Event)eventClass.newInstance(), words[2]);
+		}
+		check(words.length >= 2, "Parsing error: Expected-- <view class> <instance name>");
+		Class<? extends View> viewClass = Class.forName("views."
+								+ staged.bundle + "." + words[0])
+		    .asSubclass(View.class);
+		//. Optional keywords after the instance name
+		boolean viewConcurrent = false, viewReadWrite = false;
+		for (int i=2;i<words.length;i++) {
+		    if (words[i].compareToIgnoreCase("Concurrent") == 0) {
+			viewConcurrent = true;
+		    } else if (words[i].compareToIgnoreCase("ReadWrite") == 0) {
+			viewReadWrite = true;
 		    } else {
-			vm.registerEvent((Event)eventClass.newInstance(), words[2]);
+			check(false, "Unknown keyword "+words[i]+" for view "+words[1]);
 		    }
+		}
+		//. On reload, views which exist carry over with their state
+		if (viewConcurrent && Parameters.divide > 0) {
+		    staged.concurrentNames.add(words[1]);
+		    for (int i=0;i<Parameters.divide;i++) {
+			if (reload && null != vm.global.getView(words[1]+"_"+i))
+			    continue;
+			View v = viewClass.newInstance();
+			v.setReadWrite(viewReadWrite);
+			staged.views.put(words[1]+"_"+i, v);
+		    }
+		} else if (!reload || null == vm.global.getView(words[1])) {
+		    View v = viewClass.newInstance();
+		    v.setReadWrite(viewReadWrite);
+		    staged.views.put(words[1], v);
+		}
+		break;
+	    case 5: // For Pools
+		if (line.compareToIgnoreCase("End Pools") == 0) {
+		    section = 0;
 		    break;
-		case 4: // For DAGs
-		    if (words[0].compareToIgnoreCase("Begin") == 0) {
-			Utilities.Assert((words.length == 2),
-					 "Parsing error: Expected-- Begin DAG");
-			//currentDAGid = Integer.parseInt(words[2]);
-			currentDAG = new DAG(currentDAGid, vm);
-			while ((line = input.readLine()) != null) {
-			    line = Utilities.TrimConfigString(line);
-			    words = line.split(" ");
-			    if (words.length == 0)
-				continue;
-
-			    if (words[0].compareToIgnoreCase("Node") == 0) {
-				Utilities
-				    .Assert((words.length == 3),
-					    "Parsing error: Expected -- Node name app");
-				if (words[2].compareToIgnoreCase("Activation") == 0) {
-				    currentDAG.activation = new ActivationNode(words[1], currentDAG);
-				    currentDAG.nodes.put(words[1],
-							 currentDAG.activation);
-				    while ((line = input.readLine()) != null) {
-					line = Utilities.TrimConfigString(line);
-					words = line.split(" ");
-					if (words.length == 0)
-					    continue;
-					if (words[0].compareToIgnoreCase("End") == 0)
-					    break;
-					if (words[0].compareToIgnoreCase("Input") == 0) {
-					    currentDAG.activation.viewNames
-						.add(words[2]);
-					} else if (words[0].compareToIgnoreCase("Timer") == 0) {
-					    currentDAG.activation.timer = new Timer();
-					    long period = Long.parseLong(words[1]);
-					    final DAG toRun = currentDAG;
-					    class DAGTimerEvent implements Runnable {
-						DAG toRun;
-
-						public DAGTimerEvent(DAG d) {
-						    toRun = d;
-						}
-
-						public void run() {
-						    vm.timerStartDag(toRun);
-						}
-					    }
-					    currentDAG.activation.timer.scheduleAtFixedRate(new TimerTask() {
-						    public void run() {
-							DAGTimerEvent r = new DAGTimerEvent(toRun);
-							enqueueTask(r, Constants.PRIORITY_HIGH);
-						    }
-						}, period, period);
-					}
-				    }
-				} else if (words[2].compareToIgnoreCase("Terminal") == 0) {
-				    currentDAG.terminal = new TerminalNode(words[1], currentDAG);
-				    currentDAG.nodes.put(words[1],
-							 currentDAG.terminal);
-				    int inputPos = 0, outputPos = 0;
-				    while ((line = input.readLine()) != null) {
-					line = Utilities.TrimConfigString(line);
-					words = line.split(" ");
-					if (words.length == 0)
-					    continue;
-					if (words[0].compareToIgnoreCase("End") == 0)
-					    break;
-					// Verify that the view class does exist
-					Class vClass = Class.forName("views."
-								     + Parameters.bundle + "."
-								     + words[1]);
-					if (words[0]
-					    .compareToIgnoreCase("Input") == 0) {
-					    currentDAG.toRead.add(words[2]);
-					    currentDAG.terminal.input
-						.put(
-						     words[2],
-						     currentDAG.terminal
-						     .newIOSpecification(
-									 inputPos++,
-									 words[1]));
-					}
-					if (words[0]
-					    .compareToIgnoreCase("Output") == 0) {
-					    currentDAG.terminal.output
-						.put(
-						     words[2],
-						     currentDAG.terminal
-						     .newIOSpecification(
-									 outputPos++,
-									 words[1]));
-					}
-				    }
-				} else {
-				    Class appClass = Class.forName("apps."
-								   + Parameters.bundle + "."
-								   + words[2]);
-				    AppInstanceNode node = new AppInstanceNode(words[1],
-									       (App) appClass.newInstance(),
-									       currentDAG);
-				    node.app.initiate(vm, this);
-				    currentDAG.nodes.put(words[1], node);
-				    int inputPos = 0, outputPos = 0;
-				    while ((line = input.readLine()) != null) {
-					line = Utilities.TrimConfigString(line);
-					words = line.split(" ");
-					if (words.length == 0)
-					    continue;
-					if (words[0].compareToIgnoreCase("End") == 0)
-					    break;
-					//. Verify that the view class does exist
-					Class vClass = Class.forName("views."
-								     + Parameters.bundle + "."
-								     + words[1]);
-					if (words[0]
-					    .compareToIgnoreCase("Input") == 0) {
-					    currentDAG.toRead.add(words[2]);
-					    node.input.put(words[2], node
-							   .newIOSpecification(
-									       inputPos++,
-									       words[1]));
-					}
-					if (words[0]
-					    .compareToIgnoreCase("Output") == 0) {
-					    node.output.put(words[2], node
-							    .newIOSpecification(
-										outputPos++,
-										words[1]));
-					}
-				    }
-				}
-				continue;
-			    }
-			    if (words[0].compareToIgnoreCase("Edge") == 0) {
-				Utilities.Assert((words.length == 2),
-						 "Parsing error: Expected-- Edge link ");
-				String[] links = words[1].split(",");
-				for (int i = 0; i < links.length; i++) {
-				    String[] ns = links[i].split("->");
-				    Utilities
-					.Assert((ns.length == 2),
-						"Parsing error: Expected-- node->node");
-				    AppInstanceNode from, to;
-				    from = currentDAG.nodes.get(ns[0]);
-				    to = currentDAG.nodes.get(ns[1]);
-				    Utilities.Assert(
-						     (from != null && to != null),
-						     "Parsing error: Undefined node in line: "
-						     + line);
-
-				    AppInstanceEdge e = new AppInstanceEdge(to);
-				    to.inDegree++;
-				    from.edges.addLast(e);
-
-				    /*
-				     * if (to instanceof TerminalNode) {
-				     * ((TerminalNode)to).setViewIDs(viewIDs); }
-				     */
-				}
-				continue;
-			    }
-			    if (words[0].compareToIgnoreCase("Concurrent") == 0) {
-				currentDAG.concurrent = true;
-				continue;
-			    }
-			    if (words[0].compareToIgnoreCase("End") == 0) {
-				if (currentDAG.concurrent && Parameters.divide > 0) {
-				    for (int i=0;i<Parameters.divide;i++) {
-					HashMap<String, String> replace = new HashMap<String, String>();
-					for (String s : concurrentNames) {
-					    replace.put(s, s+"_"+i);
-					}
-					DAG newDag = currentDAG.cloneWithViewNameReplacing(replace, currentDAGid);
-					dags.put(new Integer(newDag.id), newDag);
-					currentDAGid ++;
-				    }
-				} else {
-				    dags.put(new Integer(currentDAG.id), currentDAG);
-				    currentDAGid ++;
-				}
-				currentDAG = null;
-				break;
-			    }
-			} //. End of <while more lines in input>
-		    } //. End of <If first word of line is "DAG">
+		}
+		check(3 == words.length,
+		      "Parsing error: Expected-- <event class> <pool name> <size>");
+		Class<? extends MemoryPoolEvent> poolClass = Class.forName("events."
+									   + staged.bundle + "." + words[0])
+		    .asSubclass(MemoryPoolEvent.class);
+		int poolSize = Integer.parseInt(words[2]);
+		//. Without memory management nobody frees the events, they are simply allocated on the heap
+		if (null == memMgr) {
 		    break;
-		default:
+		}
+		check(!staged.poolNames.contains(words[1]), "Pool "+words[1]+" is declared twice");
+		if (null != memMgr.getPool(words[1], MemoryPoolEvent.class)) {
+		    check(reload && null != memMgr.getPool(words[1], poolClass),
+			  "Pool "+words[1]+" is declared twice");
 		    break;
-		} //. End of <switch (section)>
-
-		if (0 == section) {
-		    //. Enter the bundles section
-		    if (words[0].compareToIgnoreCase("Package") == 0) {
-			Utilities.Assert(words.length >= 2,
-					 "Have to specify the package name!");
-			Parameters.bundle = words[1];
-			continue;
+		}
+		staged.poolNames.add(words[1]);
+		staged.poolClasses.add(poolClass);
+		staged.poolSizes.add(poolSize);
+		break;
+	    case 3: // For Events
+		if (line.compareToIgnoreCase("End Events") == 0) {
+		    section = 0;
+		    break;
+		}
+		check(3 == words.length && words[1].compareToIgnoreCase("by") == 0,
+		      "Parsing error: Expected-- <event class> by <view name>");
+		// Verify that the event class does exist
+		Event event = Class.forName("events."
+					    + staged.bundle + "." + words[0])
+		    .asSubclass(Event.class).newInstance();
+		for (String target : staged.eventTargets(words[2])) {
+		    View view = staged.getView(target);
+		    check(view != null, "View "+target+" does not exist!");
+		    check(view.whetherInterested(event),
+			  "View "+target+" is not interested in "+words[0]);
+		}
+		staged.events.add(event);
+		staged.eventViews.add(words[2]);
+		break;
+	    case 4: // For DAGs
+		if (words[0].compareToIgnoreCase("Begin") == 0) {
+		    check((words.length == 2),
+			  "Parsing error: Expected-- Begin DAG");
+		    currentDAG = new DAG(staged.nextDAGid, vm);
+		    parseDAG(input, staged, currentDAG);
+		    if (currentDAG.concurrent && Parameters.divide > 0) {
+			for (int i=0;i<Parameters.divide;i++) {
+			    HashMap<String, String> replace = new HashMap<String, String>();
+			    for (String s : staged.concurrentNames) {
+				replace.put(s, s+"_"+i);
+			    }
+			    DAG newDag = currentDAG.cloneWithViewNameReplacing(replace, staged.nextDAGid);
+			    check(null != newDag, "Cannot clone concurrent DAG "+currentDAG.id);
+			    staged.dags.put(newDag.id, newDag);
+			    staged.nextDAGid ++;
+			}
+		    } else {
+			staged.dags.put(currentDAG.id, currentDAG);
+			staged.nextDAGid ++;
 		    }
+		    currentDAG = null;
+		} //. End of <If first word of line is "DAG">
+		break;
+	    default:
+		break;
+	    } //. End of <switch (section)>
 
-		    //. Enter the Views section
-		    if (words[0].compareToIgnoreCase("Views") == 0) {
-			section = 2;
-			continue;
-		    }
+	    if (0 == section) {
+		//. Enter the bundles section
+		if (words[0].compareToIgnoreCase("Package") == 0) {
+		    check(words.length >= 2,
+			  "Have to specify the package name!");
+		    staged.bundle = words[1];
+		    continue;
+		}
 
-		    //. Enter the Events section
-		    if (words[0].compareToIgnoreCase("Events") == 0) {
-			section = 3;
-			continue;
-		    }
+		//. Enter the Views section
+		if (words[0].compareToIgnoreCase("Views") == 0) {
+		    section = 2;
+		    continue;
+		}
 
-		    //. Enter the DAGS section
-		    if (words[0].compareToIgnoreCase("DAGS") == 0) {
-			section = 4;
+		//. Enter the Pools section
+		if (words[0].compareToIgnoreCase("Pools") == 0) {
+		    section = 5;
+		    continue;
+		}
+
+		//. Enter the Events section
+		if (words[0].compareToIgnoreCase("Events") == 0) {
+		    section = 3;
+		    continue;
+		}
+
+		//. Enter the DAGS section
+		if (words[0].compareToIgnoreCase("DAGS") == 0) {
+		    section = 4;
+		    continue;
+		}
+	    }
+	} //. End of outer <while more lines in input>
+    }
+
+    /** Parse the lines of one DAG, up to its End line */
+    private void parseDAG(BufferedReader input, Staging staged, DAG currentDAG)
+	throws IOException, ConfigError, ClassNotFoundException,
+	       InstantiationException, IllegalAccessException {
+	String line;
+	String[] words;
+	while ((line = input.readLine()) != null) {
+	    line = Utilities.TrimConfigString(line);
+	    words = line.split(" ");
+	    if (words.length == 0)
+		continue;
+
+	    if (words[0].compareToIgnoreCase("Node") == 0) {
+		check((words.length == 3),
+		      "Parsing error: Expected -- Node name app");
+		check(!currentDAG.nodes.containsKey(words[1]), "Node "+words[1]+" is declared twice");
+		AppInstanceNode node;
+		if (words[2].compareToIgnoreCase("Activation") == 0) {
+		    currentDAG.activation = new ActivationNode(words[1], currentDAG);
+		    node = currentDAG.activation;
+		} else if (words[2].compareToIgnoreCase("Terminal") == 0) {
+		    currentDAG.terminal = new TerminalNode(words[1], currentDAG);
+		    node = currentDAG.terminal;
+		} else {
+		    Class<? extends App> appClass = Class.forName("apps."
+								  + staged.bundle + "."
+								  + words[2])
+			.asSubclass(App.class);
+		    node = new AppInstanceNode(words[1], appClass.newInstance(), currentDAG);
+		}
+		currentDAG.nodes.put(words[1], node);
+		int inputPos = 0, outputPos = 0;
+		while ((line = input.readLine()) != null) {
+		    line = Utilities.TrimConfigString(line);
+		    words = line.split(" ");
+		    if (words.length == 0)
+			continue;
+		    if (words[0].compareToIgnoreCase("End") == 0)
+			break;
+		    if (node == currentDAG.activation) {
+			if (words[0].compareToIgnoreCase("Input") == 0) {
+			    check(words.length == 3, "Parsing error: Expected-- Input <view class> <instance name>");
+			    currentDAG.activation.viewNames.add(words[2]);
+			} else if (words[0].compareToIgnoreCase("Timer") == 0) {
+			    check(words.length == 2, "Parsing error: Expected-- Timer <period>");
+			    long period = Long.parseLong(words[1]);
+			    check(period > 0, "Timer period has to be positive");
+			    staged.timed.add(currentDAG);
+			    staged.periods.add(period);
+			}
 			continue;
 		    }
+		    check(words.length == 3,
+			  "Parsing error: Expected-- Input|Output <view class> <instance name>");
+		    //. Verify that the view class does exist
+		    Class.forName("views."+ staged.bundle + "." + words[1]);
+		    if (words[0].compareToIgnoreCase("Input") == 0) {
+			check(!node.input.containsKey(words[2]),
+			      "View "+words[2]+" is an input of node "+node.name+" twice");
+			currentDAG.toRead.add(words[2]);
+			node.input.put(words[2], node.newIOSpecification(inputPos++, words[1]));
+		    }
+		    if (words[0].compareToIgnoreCase("Output") == 0) {
+			check(!node.output.containsKey(words[2]),
+			      "View "+words[2]+" is an output of node "+node.name+" twice");
+			node.output.put(words[2], node.newIOSpecification(outputPos++, words[1]));
+		    }
 		}
-	    } //. End of outer <while more lines in input>
-	    input.close();
-	} //. end of <Try to read some input>
-	catch (FileNotFoundException e) {
-	    Utilities.Assert(false, "Configuration File Not Found!");
-	} catch (EOFException e) {
-	    Utilities.Assert(false, "End of stream!");
-	} catch (IOException e) {
-	    Utilities.Assert(false, "IO ERROR!");
-	} catch (ClassNotFoundException e) {
-	    Utilities.Assert(false, "Class file(s) not found! "
-			     + e.getMessage());
-	} catch (InstantiationException e) {
-	    Utilities.Assert(false, "Class instantiation error!");
-	} catch (IllegalAccessException e) {
-	    Utilities.Assert(false, "Class instantiation error!");
+		continue;
+	    }
+	    if (words[0].compareToIgnoreCase("Edge") == 0) {
+		check((words.length == 2),
+		      "Parsing error: Expected-- Edge link ");
+		String[] links = words[1].split(",");
+		for (int i = 0; i < links.length; i++) {
+		    String[] ns = links[i].split("->");
+		    check((ns.length == 2),
+			  "Parsing error: Expected-- node->node");
+		    AppInstanceNode from, to;
+		    from = currentDAG.nodes.get(ns[0]);
+		    to = currentDAG.nodes.get(ns[1]);
+		    check((from != null && to != null),
+			  "Parsing error: Undefined node in line: "
+			  + line);
+
+		    AppInstanceEdge e = new AppInstanceEdge(to);
+		    to.inDegree++;
+		    from.edges.addLast(e);
+		}
+		continue;
+	    }
+	    if (words[0].compareToIgnoreCase("Concurrent") == 0) {
+		currentDAG.concurrent = true;
+		continue;
+	    }
+	    if (words[0].compareToIgnoreCase("Optimistic") == 0) {
+		currentDAG.optimistic = true;
+		continue;
+	    }
+	    if (words[0].compareToIgnoreCase("End") == 0) {
+		check(null != currentDAG.activation && null != currentDAG.terminal,
+		      "DAG "+currentDAG.id+" needs an Activation and a Terminal node");
+		return;
+	    }
+	} //. End of <while more lines in input>
+	check(false, "DAG "+currentDAG.id+" has no End");
+    }
+
+    /** A loading error stops the system, unless it is already running */
+    private void loadError(boolean reload, String s) {
+	if (reload) {
+	    Utilities.printlnDebug("Reload failed: "+s);
+	} else {
+	    Utilities.Assert(false, s);
 	}
     }
 
     /**
-     * Go through all DAGs to update the triggerMap Assume that one DAG can only
-     * be triggered by only one kind of event TODO right now it is a list, so
-     * the DAG in the head will always be preferred have to come up with either
-     * priority scheme, or round-robin like scheme
+     * Go through all DAGs to update the DAGs triggered by each view. TODO
+     * right now it is a list, so the DAG in the head will always be preferred
+     * have to come up with either priority scheme, or round-robin like scheme
      */
     public void updateTriggerMap() {
+	//. Build new arrays, the old ones may still be read by triggerDag
+	HashMap<String, LinkedHashSet<DAG>> map = new HashMap<String, LinkedHashSet<DAG>>();
 	for (DAG d : dags.values()) {
 	    for (String i : d.activation.viewNames) {
-		LinkedList<DAG> list = triggerMap.get(i);
-		if (list == null) {
-		    list = new LinkedList<DAG>();
-		    triggerMap.put(i, list);
+		LinkedHashSet<DAG> unique = map.get(i);
+		if (unique == null) {
+		    unique = new LinkedHashSet<DAG>();
+		    map.put(i, unique);
 		}
-		list.add(d);
+		unique.add(d);
 	    }
 	}
+
+	DAG[][] bySlot = new DAG[Environment.getNumSlots()][];
+	for (String i : map.keySet()) {
+	    LinkedHashSet<DAG> unique = map.get(i);
+	    int slot = Environment.getSlot(i);
+	    if (slot >= bySlot.length) {
+		DAG[][] newBySlot = new DAG[slot+1][];
+		System.arraycopy(bySlot, 0, newBySlot, 0, bySlot.length);
+		bySlot = newBySlot;
+	    }
+	    bySlot[slot] = unique.toArray(new DAG[unique.size()]);
+	}
+	triggersBySlot = bySlot;
     }
 
     /**
      *  Start a particular DAG. Usually this is a DAG triggered by a timer event
      */
     public void startDag(Environment env, DAG dag) {
-	if (dag.concurrent) {
-	    DAGRuntime drun = new DAGRuntime(dag, env, vm,
-					     getNextInstanceID());
-	    
-	    synchronized (running) {
-		running.put(drun.instanceID ,drun);
-	    }
-	    drun.start(this);
-	} else {
-	    synchronized (running) {
-		if (checkConflict(dag)) {
-		    if (whetherAlreadyWaiting(dag)) {
-			return;
-		    } else {
-			DAGRuntime drun = new DAGRuntime(dag, env, vm,
-							 getNextInstanceID());
-			drun.state = Constants.DAGStates.WAITING;
-			synchronized (triggered) {
-			    triggered.addLast(drun);
-			}
-		    }
-		} else {
-		    DAGRuntime drun = new DAGRuntime(dag, env, vm,
-						     getNextInstanceID());
-		    
-		    running.put(drun.instanceID ,drun);
-		    
-		    drun.start(this);
-		}
-	    }
-	}
+	triggerOne(env, dag, Constants.NO_DEADLINE);
     }
 
     /**
-     * Trigger the DAG which is responsible for the activation event Linear
-     * search, not optimized Only trigger normal DAGs, not approval evaluation
-     * DAGs
-     * */
-    public void triggerDag(Environment env, HashSet<String> trigger) {
+     * Trigger the DAGs activated by one view, given by its slot in the
+     * environment. The DAGs of every slot are resolved by updateTriggerMap,
+     * so apart from the new DAG instances this allocates nothing
+     */
+    public void triggerDag(Environment env, int slot, long deadline) {
 	long before = 0;
 	if (Parameters.measurePerf) {
 	    before = System.nanoTime();
 	}
-	//. Generate the list of all DAGS triggered by any of the views in the VB
-	LinkedList<DAG> dags = new LinkedList<DAG>(), toAdd;
-	for (String s : trigger) {
-	    if ((toAdd = triggerMap.get(s)) != null) {
-		for (DAG j : toAdd) {
-		    if (!dags.contains(j))
-			dags.add(j);
-		}
+	DAG[][] triggers = triggersBySlot;
+	if (slot < triggers.length && null != triggers[slot]) {
+	    DAG[] dags = triggers[slot];
+	    for (int i=0;i<dags.length;i++) {
+		triggerOne(env, dags[i], deadline);
 	    }
 	}
-
-	//. If no DAGs are triggered, then go home
-	if (dags == null || dags.size() == 0) {
-	    return;
+	if (Parameters.measurePerf) {
+	    Parameters.t4 += System.nanoTime() - before;
 	}
+    }
+
+    /**
+     * Create a DAG instance and start it, or queue it if it conflicts with
+     * running ones
+     */
+    private void triggerOne(Environment env, DAG dag, long deadline) {
+	//. TODO: Only work for non-cloning version
+	if (dag.concurrent) {
+	    DAGRuntime drun = dag.newRuntime(env, getNextInstanceID());
+	    drun.deadline = deadline;
 
-	//. For each DAG queued to be run, create the local environment and
-	//. DAGRuntime, and put it in the queue.
-	for (DAG dag : dags) {
-	    //. TODO: Only work for non-cloning version
-	    if (dag.concurrent) {
-		DAGRuntime drun = new DAGRuntime(dag, env, vm,
-						 getNextInstanceID());
+	    synchronized (running) {
+		addRunning(drun);
+	    }
+	    drun.start(this);
+	} else if (dag.optimistic) {
+	    startOptimistic(env, dag, deadline, 0);
+	} else {
+	    startOrWait(env, dag, deadline);
+	}
+    }
 
-		synchronized (running) {
-		    running.put(drun.instanceID ,drun);
+    /**
+     * Start a DAG instance, or queue it if it conflicts with running ones,
+     * unless the trigger can be coalesced into the newest instance of
+     * this DAG which has not started any app yet
+     */
+    private void startOrWait(Environment env, DAG dag, long deadline) {
+	synchronized (running) {
+	    Parameters.dagTriggers.value ++;
+	    if (null != dag.lastInstance && dag.lastInstance.coalesce(deadline)) {
+		Parameters.coalescedTriggers.value ++;
+		return;
+	    }
+	    if (checkConflict(dag)) {
+		if (whetherAlreadyWaiting(dag)) {
+		    return;
+		} else {
+		    DAGRuntime drun = dag.newRuntime(env, getNextInstanceID());
+		    drun.deadline = deadline;
+		    drun.state = Constants.DAGStates.WAITING;
+		    dag.lastInstance = drun;
+		    addWaiting(drun);
+		    /*
+		      if (waiting.size() >= Parameters.maxWaitingDAGIns) {
+		      vm.driver.suspend();
+		      }
+		    */
 		}
-		drun.start(this);
 	    } else {
-		synchronized (running) {
-		    if (checkConflict(dag)) {
-			if (whetherAlreadyWaiting(dag)) {
-			    continue;
-			} else {
-			    DAGRuntime drun = new DAGRuntime(dag, env, vm,
-							     getNextInstanceID());
-			    drun.state = Constants.DAGStates.WAITING;
-			    synchronized (triggered) {
-				triggered.addLast(drun);
-			    }
-			    /*
-			      if (triggered.size() >= Parameters.maxWaitingDAGIns) {
-			      vm.driver.suspend();
-			      }
-			    */
-			}
-		    } else {
-			DAGRuntime drun = new DAGRuntime(dag, env, vm,
-							 getNextInstanceID());
+		DAGRuntime drun = dag.newRuntime(env, getNextInstanceID());
+		drun.deadline = deadline;
+		dag.lastInstance = drun;
 
-			running.put(drun.instanceID ,drun);
-			drun.start(this);
-		    }
-		}
+		addRunning(drun);
+		drun.start(this);
 	    }
 	}
-	if (Parameters.measurePerf) {
-	    Parameters.t4 += System.nanoTime() - before;
+    }
+
+    /**
+     * Start an optimistic DAG instance right away, without checking for
+     * conflicts. It is still counted as a writer of its output views, so
+     * that other DAGs wait for it as usual
+     * @param attempt how many times this work has been tried before
+     */
+    private void startOptimistic(Environment env, DAG dag, long deadline, int attempt) {
+	DAGRuntime drun = dag.newRuntime(env, getNextInstanceID());
+	drun.deadline = deadline;
+	drun.beginOptimistic(attempt);
+	synchronized (running) {
+	    addRunning(drun);
 	}
+	drun.start(this);
     }
 
     public boolean whetherAlreadyWaiting(DAG dag) {
-	synchronized (triggered) {
-	    for (DAGRuntime dr : triggered) {
-		if (dr.dag.id == dag.id) {
-		    return true;
-		}
-	    }
+	synchronized (running) {
+	    return waiting.containsKey(dag.id);
 	}
-	return false;
     }
 
     public void produce(DAGRuntimeThread thread, ViewsIOBucket output) {
@@ -562,21 +793,10 @@ public class ApplicationManager extends Thread {
 	// to start up some new applications, and for efficiency's sake
 	// it would make sense to free these views before the new applications
 	// ask for them).
-	Set<String> names = node.output.keySet();
-	Utilities.Assert(node.output.size() == output.getSize(),
-			 "produce encounters mismatching number of views: "
-			 + node.output.size() + " vs " + output.getSize());
-	for (String name : names) {
-	    AppInstanceNode.IOSpecification iospec = node.output.get(name);
-	    Utilities.Assert(iospec != null, "produce encounters null iospec!");
-	    View v = output.getView(iospec.pos);
-	    Utilities.Assert(v != null, "produce encounters null view in pos: "
-			     + iospec.pos);
-	    String vClassName = v.getClass().getSimpleName();
-	    Utilities.Assert(vClassName.compareTo(iospec.viewClassName) == 0,
-			     "produce encounters mismatching view class type: "
-			     + vClassName + " vs " + iospec.viewClassName);
-	    d.env.bindView(name, v);
+	AppInstanceNode.IOSpecification[] plan = node.outputPlan;
+	checkOutput(plan, output);
+	for (int i = 0; i < plan.length; i++) {
+	    d.env.bindView(plan[i].slot, output.getView(plan[i].pos));
 	}
 
 	Iterator<AppInstanceEdge> it = node.edges.iterator();
@@ -598,31 +818,9 @@ public class ApplicationManager extends Thread {
 		// arrived at the terminal node, this should be the last
 		// thread running in the DAG.
 		// ViewsIOBucket output = d.env.acquireViewsForNode(e.next);
-		// TODO: currently each view is committed separately. Advanced
-		// feature is needed to
-		// ensure that all views are either all successfully committed,
-		// or none of them
-		TerminalNode t = (TerminalNode) e.next;
-		
-		// Commit views in the order specified in the .dag file
-		View[] outputs = new View[t.output.keySet().size()];
-		String[] theNames = new String[t.output.keySet().size()];
-		for (String name : t.output.keySet()) {
-		    AppInstanceNode.IOSpecification iospec = t.output.get(name);
-		    View view = d.env.local.getView(name);
-		    outputs[iospec.pos] = view;
-		    theNames[iospec.pos] = name;
-		}
-		for (int i = 0; i < outputs.length; i++) {
-		    View view = outputs[i];
-		    view.commit(vm.driver);
-		    String name = theNames[i];
-		    synchronized(vm.global) {
-			vm.global.addView(name, view);
-		    }
-		}
-
-		DAGFinish(d);
+		// All views of the DAG instance are published at once, possibly
+		// together with those of other instances finishing at the same time
+		groupCommit(d);
 
 		break;
 	    }
@@ -652,6 +850,199 @@ public class ApplicationManager extends Thread {
 	// d.delNodeThread(thread);
     }
 
+    /**
+     * Check that an app produced the views its output plan specifies
+     */
+    private void checkOutput(AppInstanceNode.IOSpecification[] plan, ViewsIOBucket output) {
+	Utilities.Assert(plan.length == output.getSize(),
+			 "produce encounters mismatching number of views: "
+			 + plan.length + " vs " + output.getSize());
+	for (int i = 0; i < plan.length; i++) {
+	    AppInstanceNode.IOSpecification iospec = plan[i];
+	    View v = output.getView(iospec.pos);
+	    Utilities.Assert(v != null, "produce encounters null view in pos: "
+			     + iospec.pos);
+	    Utilities.Assert(v.getClass() == iospec.viewClass,
+			     "produce encounters mismatching view class type: "
+			     + v.getClass().getSimpleName() + " vs " + iospec.viewClassName);
+	}
+    }
+
+    /**
+     * Run all apps of a DAG instance whose DAG is a single chain, one after
+     * another in the current task, then commit it. The views produced
+     * along the chain are handed to the next apps directly instead of
+     * being bound in the local environment
+     */
+    public void runChain(DAGRuntimeThread thread) {
+	DAGRuntime d = thread.dr;
+	AppInstanceNode[] chain = d.dag.chain;
+	for (int n = 0; n < chain.length; n++) {
+	    AppInstanceNode node = chain[n];
+	    thread.current = node;
+	    ViewsIOBucket output = node.app.process(d.env.getAppNodeReadViews(node, d.chainViews));
+	    AppInstanceNode.IOSpecification[] plan = node.outputPlan;
+	    checkOutput(plan, output);
+	    for (int i = 0; i < plan.length; i++) {
+		d.chainViews[plan[i].slot] = output.getView(plan[i].pos);
+	    }
+	}
+	groupCommit(d);
+    }
+
+    /**
+     * Commit a DAG instance which reached its terminal node. The first
+     * instance to arrive becomes the leader and commits, in arrival order,
+     * the instances queued so far, while the others only queue themselves
+     * and leave. Each batch is published to the global environment in one
+     * write, and its events are sent to the driver in one commit group
+     */
+    private void groupCommit(DAGRuntime d) {
+	synchronized (commitQueue) {
+	    commitQueue.add(d);
+	    if (committing) {
+		return;
+	    }
+	    committing = true;
+	}
+	leadCommits();
+    }
+
+    /**
+     * Commit up to LEADER_BATCHES batches as the leader. If more instances
+     * are still queued then, the leadership goes to a new task, so that
+     * under sustained load no worker is kept committing forever, away from
+     * the tasks bound to it. Without a TaskManager the leader goes on
+     */
+    private void leadCommits() {
+	for (int b=0;;b++) {
+	    synchronized (commitQueue) {
+		if (commitQueue.isEmpty()) {
+		    committing = false;
+		    return;
+		}
+		if (b >= LEADER_BATCHES && null != taskMgr) {
+		    break;
+		}
+		ArrayList<DAGRuntime> swap = commitBatch;
+		commitBatch = commitQueue;
+		commitQueue = swap;
+	    }
+	    commitBatch();
+	    commitBatch.clear();
+	}
+	taskMgr.execute(leaderTask, Constants.PRIORITY_HIGH);
+    }
+
+    /**
+     * Commit the instances in commitBatch, then finish them, or retry the
+     * optimistic ones which are not valid. Only called by the leader
+     */
+    private void commitBatch() {
+	int size = commitBatch.size();
+	if (commitValid.length < size) {
+	    commitValid = new boolean[Math.max(size, commitValid.length*2)];
+	}
+	boolean[] valid = commitValid;
+	//. An optimistic instance is not valid if a running DAG instance which
+	//. waited for its turn uses a view it writes. Once it is running, no
+	//. such instance can start, so this only needs to be checked once
+	synchronized (running) {
+	    for (int i=0;i<size;i++) {
+		DAGRuntime d = commitBatch.get(i);
+		valid[i] = true;
+		if (d.optimistic) {
+		    int[] slots = d.dag.writeSlots;
+		    for (int j=0;j<slots.length;j++) {
+			if (slots[j] < holders.length && holders[slots[j]] > 0) {
+			    valid[i] = false;
+			    break;
+			}
+		    }
+		}
+	    }
+	}
+
+	int n = 0;
+	vm.driver.beginCommitGroup();
+	synchronized (vm.global) {
+	    for (int i=0;i<size;i++) {
+		DAGRuntime d = commitBatch.get(i);
+		if (d.optimistic && valid[i]) {
+		    //. Validate against everything committed before it
+		    if (n > 0) {
+			vm.global.addViews(commitSlots, commitViews, n);
+			n = 0;
+		    }
+		    valid[i] = d.validateReads(vm.global);
+		}
+		if (!valid[i]) {
+		    continue;
+		}
+		// Commit views in the order specified in the .dag file
+		AppInstanceNode.IOSpecification[] outputs = d.dag.terminal.outputPlan;
+		if (n + outputs.length > commitSlots.length) {
+		    int len = Math.max(n + outputs.length, commitSlots.length*2);
+		    commitSlots = Arrays.copyOf(commitSlots, len);
+		    commitViews = Arrays.copyOf(commitViews, len);
+		}
+		for (int j = 0; j < outputs.length; j++) {
+		    View view = d.getView(outputs[j].slot);
+		    view.commit(vm.driver);
+		    view.committed();
+		    commitSlots[n] = outputs[j].slot;
+		    commitViews[n++] = view;
+		}
+	    }
+	    if (n > 0) {
+		vm.global.addViews(commitSlots, commitViews, n);
+	    }
+	}
+	vm.driver.endCommitGroup();
+	Arrays.fill(commitViews, 0, commitViews.length, null);
+
+	for (int i=0;i<size;i++) {
+	    DAGRuntime d = commitBatch.get(i);
+	    if (valid[i]) {
+		DAGFinish(d);
+	    } else {
+		retryOptimistic(d, d.dag.terminal);
+	    }
+	}
+	synchronized (Parameters.groupCommits) {
+	    Parameters.groupCommits.value ++;
+	    Parameters.groupCommitted.value += size;
+	}
+    }
+
+    /**
+     * Abort an optimistic DAG instance which failed validation, and run
+     * the DAG again on the current global views. After Parameters.retry
+     * tries it waits for conflicting DAGs like a normal one instead
+     */
+    private void retryOptimistic(DAGRuntime d, TerminalNode t) {
+	synchronized (Parameters.optimisticAborts) {
+	    Parameters.optimisticAborts.value ++;
+	}
+	//. Discard the views produced by this instance, but not shared ones
+	AppInstanceNode.IOSpecification[] outputs = t.outputPlan;
+	for (int i = 0; i < outputs.length; i++) {
+	    View view = d.getView(outputs[i].slot);
+	    if (null != view && view != vm.global.getView(outputs[i].slot)) {
+		view.abort();
+	    }
+	}
+	DAG dag = d.dag;
+	long deadline = d.deadline;
+	int attempt = d.attempt+1;
+	DAGAbort(d);
+	if (attempt < Parameters.retry) {
+	    startOptimistic(vm.global, dag, deadline, attempt);
+	} else {
+	    startOrWait(vm.global, dag, deadline);
+	}
+    }
+
     /**
      * Finish this DAG, and check whether any DAGs in the triggered queue can
      * run after the current finishing release some conflict condition
@@ -661,31 +1052,18 @@ public class ApplicationManager extends Thread {
      */
     public void DAGFinish(DAGRuntime d) {
 	d.finish();
+	DAG dag = d.dag;
+	boolean rerun;
+	long rerunDeadline;
 	synchronized (running) {
-	    running.remove(d.instanceID);
+	    removeRunning(d);
+	    rerun = endInstance(d);
+	    rerunDeadline = d.rerunDeadline;
+	    wakeWaiting(dag);
 	}
-	    
-	LinkedList<DAGRuntime> toRemove = new LinkedList<DAGRuntime>();
-
-	synchronized (running) {
-	    synchronized (triggered) {
-		Iterator<DAGRuntime> it = triggered.iterator();
-		while (it.hasNext()) {
-		    d = it.next();
-		    if (!checkConflict(d.dag)) {
-			toRemove.add(d);
-			running.put(d.instanceID, d);
-			d.start(this);
-		    }
-		}
-	    }
-	}
-	    
-	Iterator<DAGRuntime> it = toRemove.iterator();
-	synchronized (triggered) {
-	    while (it.hasNext()) {
-		triggered.remove(it.next());
-	    }
+	dag.recycleRuntime(d);
+	if (rerun) {
+	    triggerOne(vm.global, dag, rerunDeadline);
 	}
     }
 
@@ -698,34 +1076,33 @@ public class ApplicationManager extends Thread {
      */
     public void DAGAbort(DAGRuntime d) {
 	d.abort();
+	DAG dag = d.dag;
+	boolean rerun;
+	long rerunDeadline;
 	synchronized (running) {
-	    running.remove(d.instanceID);
+	    removeRunning(d);
+	    rerun = endInstance(d);
+	    rerunDeadline = d.rerunDeadline;
+	    if (running.size() > 20)
+		System.err.println("size "+running.size());
+	    wakeWaiting(dag);
 	}
-	if (running.size() > 20)
-	    System.err.println("size "+running.size());
-
-	LinkedList<DAGRuntime> toRemove = new LinkedList<DAGRuntime>();
-
-	synchronized (running) {
-	    synchronized (triggered) {
-		Iterator<DAGRuntime> it = triggered.iterator();
-		while (it.hasNext()) {
-		    d = it.next();
-		    if (!checkConflict(d.dag)) {
-			toRemove.add(d);
-			running.put(d.instanceID, d);
-			d.start(this);
-		    }
-		}
-	    }
+	dag.recycleRuntime(d);
+	if (rerun) {
+	    triggerOne(vm.global, dag, rerunDeadline);
 	}
-		
-	Iterator<DAGRuntime> it = toRemove.iterator();
-	synchronized (triggered) {
-	    while (it.hasNext()) {
-		triggered.remove(it.next());
-	    }
+    }
+
+    /**
+     * Stop coalescing triggers into a leaving DAG instance.
+     * Must hold the monitor of running
+     * @return whether the DAG should run again for triggers it left over
+     */
+    private boolean endInstance(DAGRuntime d) {
+	if (d.dag.lastInstance == d) {
+	    d.dag.lastInstance = null;
 	}
+	return d.rerun;
     }
 
     /**
@@ -741,23 +1118,130 @@ public class ApplicationManager extends Thread {
 	if (Parameters.measurePerf) {
 	    before = System.nanoTime();
 	}
-	HashSet<String> output = new HashSet<String>();
-	for (DAGRuntime dr : running.values()) {
-	    output.addAll(dr.dag.terminal.output.keySet());
+	boolean ret = getBlockingSlot(dag) >= 0;
+	if (Parameters.measurePerf) {
+	    Parameters.t6 += System.nanoTime() - before;
 	}
-	Set<String> myInput = dag.toRead;
-	Set<String> myOutput = dag.terminal.output.keySet();
-	if (Utilities.intersect(myInput, output)
-	    || Utilities.intersect(myOutput, output)) {
-	    if (Parameters.measurePerf) {
-		Parameters.t6 += System.nanoTime() - before;
+	return ret;
+    }
+
+    /**
+     * Find a view this DAG reads or writes while a running DAG instance
+     * writes it. Must hold the monitor of running
+     * @return the slot of that view, -1 if there is none
+     */
+    private int getBlockingSlot(DAG dag) {
+	long[] mine = dag.accessMask;
+	int n = Math.min(mine.length, writerMask.length);
+	for (int i=0;i<n;i++) {
+	    long conflict = mine[i] & writerMask[i];
+	    if (0 != conflict) {
+		return (i << 6) + Long.numberOfTrailingZeros(conflict);
 	    }
-	    return true;
-	} else {
-	    if (Parameters.measurePerf) {
-		Parameters.t6 += System.nanoTime() - before;
+	}
+	return -1;
+    }
+
+    /**
+     * Queue a DAG instance behind the running writer of the first view
+     * it conflicts on. Must hold the monitor of running
+     */
+    private void addWaiting(DAGRuntime dr) {
+	waiting.put(dr.dag.id, dr);
+	getBlockedOn(getBlockingSlot(dr.dag)).addLast(dr);
+    }
+
+    private ArrayDeque<DAGRuntime> getBlockedOn(int slot) {
+	while (blockedOn.size() <= slot) {
+	    blockedOn.add(new ArrayDeque<DAGRuntime>());
+	}
+	return blockedOn.get(slot);
+    }
+
+    /**
+     * A DAG instance has left running, start the waiting instances which
+     * were blocked on the views it wrote and have no conflict any more.
+     * Those still conflicting are queued behind their next blocking view.
+     * Must hold the monitor of running
+     */
+    private void wakeWaiting(DAG finished) {
+	int[] slots = finished.writeSlots;
+	for (int i=0;i<slots.length;i++) {
+	    int slot = slots[i];
+	    if (writers[slot] > 0 || slot >= blockedOn.size())
+		continue;
+	    ArrayDeque<DAGRuntime> q = blockedOn.get(slot);
+	    //. Only look at those queued so far, re-queued ones are appended
+	    for (int n = q.size(); n > 0; n--) {
+		DAGRuntime dr = q.pollFirst();
+		int blocking = getBlockingSlot(dr.dag);
+		if (blocking < 0) {
+		    waiting.remove(dr.dag.id);
+		    addRunning(dr);
+		    dr.start(this);
+		} else {
+		    getBlockedOn(blocking).addLast(dr);
+		}
 	    }
-	    return false;
+	}
+    }
+
+    /**
+     * Put a DAG instance into running, and count it as a writer of the
+     * output views of its DAG. Must hold the monitor of running
+     */
+    private void addRunning(DAGRuntime dr) {
+	running.put(dr.instanceID, dr);
+	int[] slots = dr.dag.writeSlots;
+	for (int i=0;i<slots.length;i++) {
+	    int slot = slots[i];
+	    if (slot >= writers.length) {
+		int[] newWriters = new int[Math.max(slot+1, writers.length*2)];
+		System.arraycopy(writers, 0, newWriters, 0, writers.length);
+		writers = newWriters;
+		long[] newMask = new long[(newWriters.length+63)/64];
+		System.arraycopy(writerMask, 0, newMask, 0, writerMask.length);
+		writerMask = newMask;
+	    }
+	    if (0 == writers[slot]++) {
+		writerMask[slot >> 6] |= 1L << (slot & 63);
+	    }
+	}
+	if (!dr.optimistic && !dr.dag.concurrent) {
+	    holdSlots(dr.dag.readSlots, 1);
+	    holdSlots(dr.dag.writeSlots, 1);
+	}
+    }
+
+    private void holdSlots(int[] slots, int delta) {
+	for (int i=0;i<slots.length;i++) {
+	    int slot = slots[i];
+	    if (slot >= holders.length) {
+		int[] newHolders = new int[Math.max(slot+1, holders.length*2)];
+		System.arraycopy(holders, 0, newHolders, 0, holders.length);
+		holders = newHolders;
+	    }
+	    holders[slot] += delta;
+	}
+    }
+
+    /**
+     * Remove a DAG instance from running, the reverse of addRunning.
+     * Must hold the monitor of running
+     */
+    private void removeRunning(DAGRuntime dr) {
+	if (null == running.remove(dr.instanceID))
+	    return;
+	int[] slots = dr.dag.writeSlots;
+	for (int i=0;i<slots.length;i++) {
+	    int slot = slots[i];
+	    if (0 == --writers[slot]) {
+		writerMask[slot >> 6] &= ~(1L << (slot & 63));
+	    }
+	}
+	if (!dr.optimistic && !dr.dag.concurrent) {
+	    holdSlots(dr.dag.readSlots, -1);
+	    holdSlots(dr.dag.writeSlots, -1);
 	}
     }
 
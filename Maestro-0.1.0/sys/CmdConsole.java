@@ -68,6 +68,26 @@ public class CmdConsole extends Thread {
 			}
 			v.print();
 		    }
+		    if (s.compareTo("reload") == 0) {
+			System.out.println("  Please input the configuration file, empty for the current one:");
+			System.out.print("=>");
+			s = in.readLine();
+			if (appManager.reloadSystem(0 == s.length() ? null : s)) {
+			    System.out.println("  DAGs reloaded");
+			} else {
+			    System.out.println("  Reload failed, the current DAGs are kept");
+			}
+		    }
+		    if (s.compareTo("stats") == 0) {
+			printStats();
+		    }
+		    if (s.compareTo("leaks") == 0) {
+			if (null == appManager.memMgr || !Parameters.poolLeakDetection) {
+			    System.out.println("  Leak detection is not enabled (poolLeakDetection)");
+			} else {
+			    appManager.memMgr.printLeaks();
+			}
+		    }
 		    if (s.compareTo("help") == 0 || s.compareTo("h") == 0) {
 			printOptions();
 		    }
@@ -110,10 +130,32 @@ public class CmdConsole extends Thread {
         }
     }
 	
+    /** Print runtime statistics collected by the system */
+    public void printStats() {
+	System.out.println("  Flow-setup deadline misses: "+Parameters.deadlineMisses.value);
+	System.out.println("  Expired PACKET_INs shed:    "+Parameters.shedCount.value);
+	System.out.println("  Optimistic DAG aborts:      "+Parameters.optimisticAborts.value);
+	System.out.println("  Group commits:              "+Parameters.groupCommits.value
+			   +" ("+Parameters.groupCommitted.value+" DAG instances)");
+	long triggers = Parameters.dagTriggers.value;
+	long coalesced = Parameters.coalescedTriggers.value;
+	System.out.println("  DAG triggers coalesced:     "+coalesced+" of "+triggers
+			   +" (merge ratio "+(triggers/Math.max(1, triggers-coalesced))+")");
+	long flushes = Parameters.batchFlushes.value;
+	System.out.println("  Input batches:              "+flushes+" ("+Parameters.timedFlushes.value
+			   +" by timer, average size "+(Parameters.batchedEvents.value/Math.max(1, flushes))+")");
+	if (null != appManager.memMgr) {
+	    appManager.memMgr.printStats();
+	}
+    }
+	
     public void printOptions() {
     	System.out.println("=====================================================================");
     	System.out.println("| (print)             Call a particular view's print function       |");
     	System.out.println("| (help/h)            Print all options again                       |");
+    	System.out.println("| (stats)             Print runtime statistics                      |");
+    	System.out.println("| (leaks)             Print live pool objects by allocation site    |");
+    	System.out.println("| (reload)            Reload the DAGs from a configuration file     |");
 	System.out.println("| (1)                 Run function1()                               |");
     	System.out.println("| (quit)              Quit Maestro                                  |");
     	System.out.println("+-------------------------------------------------------------------+");
@@ -52,4 +52,7 @@ public class Constants {
     public static final int TERMINAL = 65536;
     
     public static final int MAXIMUM_DIVIDE = 8;
+
+    /** Deadline value for work that has no flow-setup deadline attached */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
 }
@@ -49,6 +49,39 @@ public class DAG {
 	
     /** Whether multiple DAG instances can wait in the queue and run concurrently */
     boolean concurrent = false;
+
+    /**
+     * Whether instances of this DAG start without waiting for conflicting
+     * ones, and are validated when they commit: if a view they read was
+     * committed meanwhile, they are aborted and run again. Only for DAGs
+     * which can be re-run from the global views, i.e. whose apps do not
+     * consume their input views or change shared views in place
+     */
+    boolean optimistic = false;
+
+    /** The newest instance of this non-concurrent DAG, which later triggers
+     * may be coalesced into. Protected by the monitor of am.running */
+    DAGRuntime lastInstance = null;
+
+    /** Slots of the views this DAG commits, built by compile() */
+    int[] writeSlots = new int[0];
+    /** Slots of the views this DAG reads, built by compile() */
+    int[] readSlots = new int[0];
+
+    /**
+     * The app nodes between activation and terminal if this is a concurrent
+     * DAG and they form a single chain, which then runs as one task, built
+     * by compile(). null otherwise
+     */
+    AppInstanceNode[] chain = null;
+    /** One more than the largest view slot produced along chain */
+    int chainSlots = 0;
+
+    /** Finished DAGRuntimes of this DAG kept for reuse, at most RUNTIME_POOL_SIZE */
+    private final ArrayDeque<DAGRuntime> freeRuntimes = new ArrayDeque<DAGRuntime>();
+    public static int RUNTIME_POOL_SIZE = 64;
+    /** Bitmask over view slots of all views this DAG reads or commits, built by compile() */
+    long[] accessMask = new long[0];
 	
     /** Create a new instance of DAG*/
     public DAG(int i, ViewManager vm) {
@@ -126,10 +159,108 @@ public class DAG {
 	}
 	
 	ret.concurrent = concurrent;
+	ret.optimistic = optimistic;
 	
 	return ret;
     }
 
+    /**
+     * Get a DAGRuntime for a new instance of this DAG, a recycled one if
+     * memory management is on and there is any
+     */
+    DAGRuntime newRuntime(Environment env, int instance) {
+	if (Parameters.useMemoryMgnt) {
+	    DAGRuntime ret;
+	    synchronized (freeRuntimes) {
+		ret = freeRuntimes.pollLast();
+	    }
+	    if (null != ret) {
+		ret.reset(env, instance);
+		return ret;
+	    }
+	}
+	return new DAGRuntime(this, env, vm, instance);
+    }
+
+    /**
+     * Keep a DAGRuntime for reuse. It must have finished or aborted,
+     * and nothing may refer to it any more
+     */
+    void recycleRuntime(DAGRuntime dr) {
+	if (!Parameters.useMemoryMgnt) {
+	    return;
+	}
+	synchronized (freeRuntimes) {
+	    if (freeRuntimes.size() < RUNTIME_POOL_SIZE) {
+		freeRuntimes.addLast(dr);
+	    }
+	}
+    }
+
+    /**
+     * Compile all nodes of this DAG into their execution plans,
+     * must be called once the DAG is completely loaded
+     */
+    public void compile() {
+	int index = 0;
+	for (AppInstanceNode n : nodes.values()) {
+	    n.index = index++;
+	    n.compile();
+	}
+
+	writeSlots = new int[terminal.outputPlan.length];
+	for (int i=0;i<writeSlots.length;i++) {
+	    writeSlots[i] = terminal.outputPlan[i].slot;
+	}
+	readSlots = new int[toRead.size()];
+	int n = 0;
+	for (String s : toRead) {
+	    readSlots[n++] = Environment.getSlot(s);
+	}
+	accessMask = new long[(Environment.getNumSlots()+63)/64];
+	for (int i=0;i<readSlots.length;i++) {
+	    accessMask[readSlots[i] >> 6] |= 1L << (readSlots[i] & 63);
+	}
+	for (int i=0;i<writeSlots.length;i++) {
+	    accessMask[writeSlots[i] >> 6] |= 1L << (writeSlots[i] & 63);
+	}
+
+	chain = concurrent ? findChain() : null;
+	chainSlots = 0;
+	if (null != chain) {
+	    for (AppInstanceNode c : chain) {
+		for (AppInstanceNode.IOSpecification spec : c.outputPlan) {
+		    chainSlots = Math.max(chainSlots, spec.slot+1);
+		}
+	    }
+	}
+    }
+
+    /**
+     * Find the app nodes leading from activation to terminal, if each of
+     * them has exactly one incoming and one outgoing edge
+     * @return null if this DAG is not such a chain
+     */
+    private AppInstanceNode[] findChain() {
+	ArrayList<AppInstanceNode> ret = new ArrayList<AppInstanceNode>();
+	AppInstanceNode n = activation;
+	while (true) {
+	    if (n.edges.size() != 1) {
+		return null;
+	    }
+	    AppInstanceNode next = n.edges.getFirst().next;
+	    if (next.inDegree != 1) {
+		return null;
+	    }
+	    if (next == terminal) {
+		break;
+	    }
+	    ret.add(next);
+	    n = next;
+	}
+	return ret.isEmpty() ? null : ret.toArray(new AppInstanceNode[ret.size()]);
+    }
+
     public void print() {
 	System.out.println("DAG ID is "+id);
 	
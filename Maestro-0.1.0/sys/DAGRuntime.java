@@ -44,6 +44,35 @@ public class DAGRuntime {
 	
     /** Whether this DAG is currently running*/
     int state;
+
+    /** Deadline of the work that triggered this instance,
+     * Constants.NO_DEADLINE if none */
+    long deadline;
+
+    /** When this instance was created, and how many triggers it covers */
+    private long created;
+    int merged = 1;
+
+    /** Whether any of its apps has started, after that it cannot absorb triggers */
+    volatile boolean begun = false;
+
+    /** Whether the DAG should run again after this instance, for triggers
+     * which came after its coalescing window closed, and their deadline */
+    boolean rerun = false;
+    long rerunDeadline = Constants.NO_DEADLINE;
+
+    /** Views produced so far along dag.chain, by slot, null if it has none */
+    View[] chainViews;
+
+    /** Whether this instance runs optimistically, see DAG.optimistic */
+    boolean optimistic = false;
+
+    /** How many times this instance has been tried so far */
+    int attempt = 0;
+
+    /** Views this instance read, and their commit counts when it started */
+    private View[] readViews;
+    private long[] readCommits;
 	
     /** Actively running threads in this DAG*/
     LinkedList<DAGRuntimeThread> active;
@@ -56,14 +85,14 @@ public class DAGRuntime {
     LinkedList<SuspendedThreadNode> suspended;
 	
     /** 
-     * A map from applications to the number of threads that
-     * have tried to run them. This ensures that an application
+     * The number of threads that have tried to run each application,
+     * indexed by AppInstanceNode.index. This ensures that an application
      * node with an in degree greater than one will not be run repeatedly.
      * For example, if an application is designed to wait for two
      * preceding applications to finish, this will be used to track that
      * they both finish before it is executed.
      */
-    Map<AppInstanceNode,Integer> threadArrivalMap;
+    int[] threadArrivals;
 	
     /** This is tracked so that when the DAGRuntime finishes, it
      * may remove itself from the applicationManager's list of
@@ -77,18 +106,113 @@ public class DAGRuntime {
 	dag = d;
 	sem = new Semaphore(1);
 	env = new LocalEnv();
-	env.addLocalENV(theEnv);
 	violations = new LinkedList<Violation>();
 	suspended = new LinkedList<SuspendedThreadNode>();
-	state = Constants.DAGStates.IDLE;
 	active = new LinkedList<DAGRuntimeThread>();
+	if (null != d.chain) {
+	    chainViews = new View[d.chainSlots];
+	}
+	threadArrivals = new int[d.nodes.size()];
+	readViews = new View[d.readSlots.length];
+	readCommits = new long[d.readSlots.length];
+	reset(theEnv, instance);
+    }
+
+    /**
+     * Make this DAGRuntime a fresh instance of its DAG, so that it can be
+     * recycled once the previous instance finished or aborted
+     */
+    final void reset(Environment theEnv, int instance) {
+	env.addLocalENV(theEnv);
+	state = Constants.DAGStates.IDLE;
+	active.clear();
 	instanceID = instance;
-		
-	threadArrivalMap = new HashMap<AppInstanceNode,Integer>();
-	for(AppInstanceNode n : d.nodes.values()) {
-	    threadArrivalMap.put(n, 0);
+	deadline = Constants.NO_DEADLINE;
+	created = System.nanoTime();
+	merged = 1;
+	begun = false;
+	rerun = false;
+	rerunDeadline = Constants.NO_DEADLINE;
+	optimistic = false;
+	attempt = 0;
+	Arrays.fill(threadArrivals, 0);
+    }
+	
+    /**
+     * Run this instance optimistically: remember the version of every view
+     * it reads in its snapshot, to be checked by validateReads
+     */
+    public void beginOptimistic(int attempt) {
+	optimistic = true;
+	this.attempt = attempt;
+	int[] slots = dag.readSlots;
+	for (int i=0;i<slots.length;i++) {
+	    readViews[i] = env.local.getView(slots[i]);
+	    if (null != readViews[i]) {
+		readCommits[i] = readViews[i].getCommits();
+	    }
 	}
     }
+
+    /**
+     * Check that none of the views this instance read has been committed,
+     * or changed by an event, since it started. Must hold the monitor of global
+     * @return true if this instance may commit
+     */
+    public boolean validateReads(Environment global) {
+	int[] slots = dag.readSlots;
+	for (int i=0;i<slots.length;i++) {
+	    View now = global.getView(slots[i]);
+	    if (now != readViews[i]
+		|| (null != now && now.getCommits() != readCommits[i])) {
+		return false;
+	    }
+	}
+	return true;
+    }
+	
+    /**
+     * Let this instance absorb another trigger of its DAG, which is
+     * possible until any of its apps starts, as its views accumulate
+     * the changes behind the trigger. Once its coalescing window is over,
+     * the trigger is left to a rerun of the DAG after this instance.
+     * A tighter deadline only applies to the tasks of this instance
+     * created from now on, those already queued keep theirs.
+     * Must hold the monitor of am.running
+     * @return false if the trigger needs a new instance
+     */
+    public synchronized boolean coalesce(long triggerDeadline) {
+	if (!begun && merged < Parameters.coalesceCount
+	    && System.nanoTime() - created < Parameters.coalesceWindow) {
+	    merged ++;
+	    if (triggerDeadline < deadline) {
+		deadline = triggerDeadline;
+	    }
+	    return true;
+	}
+	if (begun && !rerun) {
+	    return false;
+	}
+	rerun = true;
+	if (triggerDeadline < rerunDeadline) {
+	    rerunDeadline = triggerDeadline;
+	}
+	return true;
+    }
+
+    synchronized void markBegun() {
+	begun = true;
+    }
+	
+    /**
+     * Get a view this instance is going to commit, or has read
+     */
+    public View getView(int slot) {
+	if (null != chainViews && slot < chainViews.length && null != chainViews[slot]) {
+	    return chainViews[slot];
+	}
+	return env.local.getView(slot);
+    }
 	
     public void acquire() {
     	try {
@@ -124,6 +248,10 @@ public class DAGRuntime {
     	//. I'm looking to change as little as possible.
     	this.am = am;
     	
+	if (null != dag.chain) {
+	    addNodeThread(new DAGRuntimeThread(dag.chain[0], am, this));
+	    return;
+	}
     	Iterator<AppInstanceEdge> it = dag.activation.edges.iterator();
     	while (it.hasNext()) {
 	    AppInstanceEdge e = it.next();
@@ -144,6 +272,9 @@ public class DAGRuntime {
     	suspended.clear();
     	//active.clear();
     	env.clearLocal();
+	if (null != chainViews) {
+	    Arrays.fill(chainViews, null);
+	}
     	violations.clear();
     	state = Constants.DAGStates.IDLE;
     	
@@ -166,6 +297,9 @@ public class DAGRuntime {
     	suspended.clear();
     	
     	env.clearLocal();
+	if (null != chainViews) {
+	    Arrays.fill(chainViews, null);
+	}
     	violations.clear();
     	state = Constants.DAGStates.IDLE;
     }
@@ -176,7 +310,7 @@ public class DAGRuntime {
     	if (Parameters.divide == 0) {
 	    n.run();
     	} else {
-	    am.enqueueBindingTask(n, Constants.PRIORITY_MEDIUM);
+	    am.enqueueNodeTask(n);
     	}
     }
     
@@ -195,7 +329,7 @@ public class DAGRuntime {
      * @return Whether or not n is ready to be executed.
      */
     public synchronized boolean signifyThreadArrived(AppInstanceNode n) {
-    	int threadsArrived = threadArrivalMap.get(n);
+    	int threadsArrived = threadArrivals[n.index];
     	
     	/* 
     	 * All of the threads besides this one that precede n have finished
@@ -211,7 +345,7 @@ public class DAGRuntime {
     	/*
     	 * Not all threads have arrived, and n is not ready to be executed.
     	 */
-    	else threadArrivalMap.put(n, threadsArrived+1);
+    	else threadArrivals[n.index] = threadsArrived+1;
     	return false;
     }
 }
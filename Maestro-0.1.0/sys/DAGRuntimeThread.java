@@ -27,17 +27,21 @@ import views.*;
  * @author Zheng Cai
  *
  */
-public class DAGRuntimeThread implements Runnable {
+public class DAGRuntimeThread implements DeadlineTask {
     AppInstanceNode current;
     private ViewsIOBucket currentReservedViews;
     ApplicationManager am;
     DAGRuntime dr;
+    /** The deadline of dr when this task was created, which is its key in
+     * the EDF queues of the TaskManager, so it must not change while queued */
+    private final long deadline;
 	
     /** Create a new instance of NodeThread*/
     public DAGRuntimeThread(AppInstanceNode start, ApplicationManager a, DAGRuntime drtime) {
 	current = start;
 	am = a;
 	dr = drtime;
+	deadline = drtime.deadline;
 	//this.setPriority(Thread.NORM_PRIORITY);
         //this.setDaemon(true);
     }
@@ -45,6 +49,10 @@ public class DAGRuntimeThread implements Runnable {
     public void run() {
 	executeApp();
     }
+
+    public long getDeadline() {
+	return deadline;
+    }
 	
     /* TODO Viewsbucket should be replaced by environment wherever possible, to avoid
      * the silly redundancy of having to store a one-use viewsbucket in an instance
@@ -67,6 +75,13 @@ public class DAGRuntimeThread implements Runnable {
 	   am.produce(this, result);
 	*/
 		
+	if (!dr.begun) {
+	    dr.markBegun();
+	}
+	if (null != dr.chainViews) {
+	    am.runChain(this);
+	    return;
+	}
 	ViewsIOBucket input = dr.env.getAppNodeReadViews(current);
 	ViewsIOBucket result = current.app.process(input);
 	am.produce(this, result);
@@ -0,0 +1,32 @@
+/*
+  DeadlineTask.java
+
+  Copyright (C) 2010  Rice University
+
+  This software is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This software is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this software; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package sys;
+
+/**
+ * A task that carries a deadline (System.nanoTime() based), so that
+ * the TaskManager can run the task whose deadline is closest first
+ */
+public interface DeadlineTask extends Runnable {
+    /**
+     * @return the deadline of this task, Constants.NO_DEADLINE if none
+     */
+    public long getDeadline();
+}
@@ -22,37 +22,153 @@ package sys;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
 
 import views.View;
 
 /**
+ * The view instances of an environment live in an array indexed by
+ * view slots: every view instance name gets a slot, shared by all
+ * environments, the first time it is seen. DAGs are compiled against
+ * those slots at load time, so running them needs no name lookups.
+ *
+ * The array is copy-on-write: clone() only shares it, and whichever of
+ * the environments sharing it is written first makes its own copy. So
+ * taking a snapshot of the global environment for a DAG instance is O(1),
+ * and each commit to the global environment publishes a new version.
  * @author Zheng Cai
  */
 public class Environment implements Cloneable, Serializable {
+    /** Slot of every view instance name */
+    private static final ConcurrentHashMap<String, Integer> slots = new ConcurrentHashMap<String, Integer>();
+    /** View instance name of every slot */
+    private static String[] names = new String[16];
+
     public boolean violation;	//default is false: not a violation
     private Semaphore sem;
-    private HashMap<String, View> views;
+    private volatile View[] views;
+    private static final View[] NO_VIEWS = new View[0];
+    /** Whether views is shared with a clone, and must be copied before writing */
+    private boolean shared;
+    /** Incremented by every write */
+    private volatile long version;
     
     /** Creates a new instance of VirtualView */
     public Environment() {
-        views = new HashMap<String, View>();
+        views = new View[getNumSlots()];
         sem = new Semaphore(1);
         violation = false;
     }
     
     /** 
-     * Creates a new instance of VirtualView from an existing views hashmap
-     * @param vs the existing hashmap
+     * Creates a new instance of VirtualView from an existing views array
+     * @param vs the existing array
      */
-    public Environment(HashMap<String, View> vs) {
+    private Environment(View[] vs) {
         views = vs;
+        shared = true;
         sem = new Semaphore(1);
         violation = false;
     }
+
+    /**
+     * Get the slot of a view instance name, allocating a new one if this
+     * name has never been seen
+     */
+    public static int getSlot(String name) {
+	Integer ret = slots.get(name);
+	if (null != ret) {
+	    return ret;
+	}
+	return newSlot(name);
+    }
+
+    private static synchronized int newSlot(String name) {
+	Integer ret = slots.get(name);
+	if (null == ret) {
+	    ret = slots.size();
+	    if (ret >= names.length) {
+		String[] newNames = new String[names.length*2];
+		System.arraycopy(names, 0, newNames, 0, names.length);
+		names = newNames;
+	    }
+	    names[ret] = name;
+	    slots.put(name, ret);
+	}
+	return ret;
+    }
+
+    /**
+     * Get the slot of a view instance name
+     * @return -1 if this name has never been seen
+     */
+    public static int findSlot(String name) {
+	Integer ret = slots.get(name);
+	return null == ret ? -1 : ret;
+    }
+
+    /** Get the view instance name of a slot */
+    public static synchronized String getSlotName(int slot) {
+	return names[slot];
+    }
+
+    public static synchronized int getNumSlots() {
+	return slots.size();
+    }
     
     public void clearViews() {
-        views.clear();
+	lock();
+	views = NO_VIEWS;
+	shared = true;
+	version ++;
+	sem.release();
+    }
+
+    /**
+     * Turn this environment into a snapshot of another one, like clone()
+     * but without creating a new environment
+     */
+    public void snapshotOf(Environment src) {
+	src.lock();
+	src.shared = true;
+	View[] vs = src.views;
+	long v = src.version;
+	src.sem.release();
+	lock();
+	views = vs;
+	shared = true;
+	version = v;
+	sem.release();
+    }
+
+    /** The number of writes to this environment so far */
+    public long getVersion() {
+	return version;
+    }
+
+    private void lock() {
+	try {
+	    sem.acquire();
+	} catch (InterruptedException e) {
+	    System.err.println("Resevorir_addViews: Inturrepted sem.acquire()");
+	    e.printStackTrace();
+	}
+    }
+
+    /**
+     * Get an array that can be written in place and holds at least
+     * minLength slots, copying the shared one if needed. Must hold sem
+     */
+    private View[] writable(int minLength) {
+	View[] vs = views;
+	if (shared || vs.length < minLength) {
+	    View[] newViews = new View[Math.max(minLength, vs.length)];
+	    System.arraycopy(vs, 0, newViews, 0, vs.length);
+	    vs = newViews;
+	    shared = false;
+	}
+	return vs;
     }
     
     /**
@@ -63,17 +179,47 @@ public class Environment implements Cloneable, Serializable {
      * @return the previous view instance bound to this name, null if not existed
      */
     public View addView(String name, View view) {
-	//view.name = name;
-	try {
-	    sem.acquire();
-	} catch (InterruptedException e) {
-	    System.err.println("Resevorir_addViews: Inturrepted sem.acquire()");
-	    e.printStackTrace();
-	}
-	View ret = views.put(name, view);
+	return addView(getSlot(name), view);
+    }
+
+    /**
+     * Add a new view instance and bind it to a slot in the view reservoir
+     * @param slot the slot of the view instance, from getSlot
+     * @param view the view instance
+     * @return the previous view instance in this slot, null if not existed
+     */
+    public View addView(int slot, View view) {
+	lock();
+	View[] vs = writable(Math.max(slot+1, getNumSlots()));
+	View ret = vs[slot];
+	vs[slot] = view;
+	views = vs;
+	version ++;
 	sem.release();
 	return ret;
     }
+
+    /**
+     * Bind several view instances at once, as a single write: a snapshot
+     * taken concurrently sees either all of them or none
+     * @param slots the slots of the view instances
+     * @param vs the view instances, vs[i] goes to slots[i]
+     * @param n how many of them to bind
+     */
+    public void addViews(int[] slots, View[] vs, int n) {
+	int max = getNumSlots();
+	for (int i=0;i<n;i++) {
+	    max = Math.max(max, slots[i]+1);
+	}
+	lock();
+	View[] to = writable(max);
+	for (int i=0;i<n;i++) {
+	    to[slots[i]] = vs[i];
+	}
+	views = to;
+	version ++;
+	sem.release();
+    }
 	
     /**
      * Remove the view instance bound to the name in the view reservoir
@@ -81,13 +227,16 @@ public class Environment implements Cloneable, Serializable {
      * @return the removed view instance, null if not existed
      */
     public View removeView(String name) {
-	try {
-	    sem.acquire();
-	} catch (InterruptedException e) {
-	    System.err.println("Resevorir_addViews: Inturrepted sem.acquire()");
-	    e.printStackTrace();
+	lock();
+	View ret = null;
+	int slot = findSlot(name);
+	if (slot >= 0 && slot < views.length) {
+	    View[] vs = writable(views.length);
+	    ret = vs[slot];
+	    vs[slot] = null;
+	    views = vs;
+	    version ++;
 	}
-	View ret = views.remove(name);
 	sem.release();
 	return ret;
     }
@@ -98,12 +247,30 @@ public class Environment implements Cloneable, Serializable {
      * @return the view instance, null if not existed
      */
     public View getView(String name) {
-	return views.get(name);
+	int slot = findSlot(name);
+	return slot < 0 ? null : getView(slot);
+    }
+
+    /** 
+     * Get the view instance in a slot
+     * @param slot the slot of the view instance, from getSlot
+     * @return the view instance, null if not existed
+     */
+    public View getView(int slot) {
+	View[] vs = views;
+	return slot < vs.length ? vs[slot] : null;
     }
     
     /** Get the view names from all those views this virtual view contains*/
     public Set<String> getViewNames() {
-    	return views.keySet();
+	LinkedHashSet<String> ret = new LinkedHashSet<String>();
+	View[] vs = views;
+	for (int i=0;i<vs.length;i++) {
+	    if (null != vs[i]) {
+		ret.add(getSlotName(i));
+	    }
+	}
+    	return ret;
     }
     
     /**
@@ -111,12 +278,26 @@ public class Environment implements Cloneable, Serializable {
      * @return the collection of view instances
      */
     public Collection<View> getAllViews() {
-    	return views.values();
+	ArrayList<View> ret = new ArrayList<View>();
+	View[] vs = views;
+	for (int i=0;i<vs.length;i++) {
+	    if (null != vs[i]) {
+		ret.add(vs[i]);
+	    }
+	}
+    	return ret;
     }
     
-    @SuppressWarnings("unchecked")
-	public Environment clone() {
-        Environment ret = new Environment((HashMap<String, View>)views.clone());
+    /**
+     * Take a snapshot of this environment, in O(1): both environments
+     * share the array until one of them is written
+     */
+    public Environment clone() {
+	lock();
+	shared = true;
+        Environment ret = new Environment(views);
+	ret.version = version;
+	sem.release();
         return ret;
     }
     
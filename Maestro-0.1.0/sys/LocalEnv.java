@@ -39,9 +39,13 @@ public class LocalEnv {
     }
 	
     public void addLocalENV(Environment env) {
-	/* Take a snapshot of the current environment */
-	synchronized(env) {
+	/* Take a snapshot of the current environment, which only shares
+	 * its copy-on-write array
+	 */
+	if (null == local) {
 	    local = env.clone();
+	} else {
+	    local.snapshotOf(env);
 	}
 	//for(View v : local.getAllViews()) viewSemaphores.put(v, new Semaphore(1));
     }
@@ -65,6 +69,11 @@ public class LocalEnv {
 	    //viewSemaphores.remove(current);
 	}
     }
+
+    /** Bind a view by its slot, used by the compiled DAG plans */
+    public void bindView(int slot, View v) {
+	local.addView(slot, v);
+    }
 	
     /** 
      * This method gives all of the views that an AppInstanceNode
@@ -76,25 +85,40 @@ public class LocalEnv {
      * @return All views read by node
      */
     public ViewsIOBucket getAppNodeReadViews(AppInstanceNode node) {
-	ViewsIOBucket result = new ViewsIOBucket();
-	Iterator<String> it = node.input.keySet().iterator();
-	while (it.hasNext()) {
-	    String name = it.next();
-	    View v = local.getView(name);
+	return getAppNodeViews(node.inputPlan, null);
+    }
+
+    /**
+     * The same as getAppNodeReadViews, but views found in overlay, which
+     * is indexed by slot, take precedence over those bound here
+     */
+    public ViewsIOBucket getAppNodeReadViews(AppInstanceNode node, View[] overlay) {
+	return getAppNodeViews(node.inputPlan, overlay);
+    }
+
+    /**
+     * Collect the views of a compiled input or output plan into a bucket,
+     * the view classes were resolved when the DAG was compiled
+     */
+    private ViewsIOBucket getAppNodeViews(AppInstanceNode.IOSpecification[] plan, View[] overlay) {
+	ViewsIOBucket result = new ViewsIOBucket(plan.length);
+	for (int i=0;i<plan.length;i++) {
+	    AppInstanceNode.IOSpecification spec = plan[i];
+	    View v = null;
+	    if (null != overlay && spec.slot < overlay.length) {
+		v = overlay[spec.slot];
+	    }
+	    if (null == v) {
+		v = local.getView(spec.slot);
+	    }
 	    /* Check whether the view instance exists */
-	    Utilities.Assert(null != v, "View instance "+name+" is null");
-	    AppInstanceNode.IOSpecification input = node.input.get(name);
+	    Utilities.Assert(null != v, "View instance "+spec.viewName+" is null");
 	    /* Check whether the class type of the view instance matches
 	     * with what is declared for this application instance
 	     */
-	    try {
-		Utilities.Assert(Class.forName("views."+Parameters.bundle+"."+input.viewClassName).equals(v.getClass()),
-				 "View class type mismatch for view instance "+name);
-	    } catch (ClassNotFoundException e) {
-		Utilities.Assert(false, "View class declared by name "
-				 +input.viewClassName+" not found");
-	    }
-	    result.addView(input.pos, v);
+	    Utilities.Assert(spec.viewClass == v.getClass(),
+			     "View class type mismatch for view instance "+spec.viewName);
+	    result.addView(spec.pos, v);
 	}
 	return result;
     }
@@ -109,26 +133,7 @@ public class LocalEnv {
      * @return All views written to by {@value node}
      */
     private ViewsIOBucket getAppNodeWriteViews(AppInstanceNode node) {
-	ViewsIOBucket result = new ViewsIOBucket();
-	Iterator<String> it = node.output.keySet().iterator();
-	while (it.hasNext()) {
-	    String name = it.next();
-	    View v = local.getView(name);
-	    // Check whether the view instance exists
-	    Utilities.Assert(null != v, "View instance "+name+" is null");
-	    AppInstanceNode.IOSpecification output = node.output.get(name);
-	    // Check whether the class type of the view instance matches
-	    // with what is declared for this application instance
-	    try {
-		Utilities.Assert(Class.forName("views."+Parameters.bundle+"."+output.viewClassName).equals(v.getClass()),
-				 "View class type mismatch for view instance "+name);
-	    } catch (ClassNotFoundException e) {
-		Utilities.Assert(false, "View class declared by name "
-				 +output.viewClassName+" not found");
-	    }
-	    result.addView(node.output.get(name).pos, v);
-	}
-	return result;
+	return getAppNodeViews(node.outputPlan, null);
     }
 	
     /** 
@@ -46,6 +46,9 @@ public class Main {
 		    Parameters.printDebug = (1 == Integer.parseInt(words[1]))?true:false;
 		} else if (words[0].compareToIgnoreCase("batchInputNum") == 0) {
 		    Parameters.batchInputNum = Integer.parseInt(words[1]);
+		} else if (words[0].compareToIgnoreCase("batchLatencyTarget") == 0) {
+		    //. Specified in microseconds
+		    Parameters.batchLatencyTarget = Long.parseLong(words[1])*1000;
 		} else if (words[0].compareToIgnoreCase("batchOutput") == 0) {
 		    Parameters.batchOutput = (1 == Integer.parseInt(words[1]))?true:false;
 		} else if (words[0].compareToIgnoreCase("numThreads") == 0) {
@@ -62,6 +65,48 @@ public class Main {
 		    Utilities.openLogFile(words[1]);
 		} else if (words[0].compareToIgnoreCase("port") == 0) {
 		    Parameters.listenPort = Integer.parseInt(words[1]);
+		} else if (words[0].compareToIgnoreCase("flowSetupDeadline") == 0) {
+		    //. Specified in milliseconds
+		    Parameters.flowSetupDeadline = Long.parseLong(words[1])*1000000;
+		} else if (words[0].compareToIgnoreCase("timerTick") == 0) {
+		    TimerWheel.TICK_MS = Long.parseLong(words[1]);
+		} else if (words[0].compareToIgnoreCase("timerJitter") == 0) {
+		    Parameters.timerJitter = Integer.parseInt(words[1]);
+		} else if (words[0].compareToIgnoreCase("coalesceCount") == 0) {
+		    Parameters.coalesceCount = Integer.parseInt(words[1]);
+		} else if (words[0].compareToIgnoreCase("coalesceWindow") == 0) {
+		    //. Specified in milliseconds
+		    Parameters.coalesceWindow = Long.parseLong(words[1])*1000000;
+		} else if (words[0].compareToIgnoreCase("shedExpired") == 0) {
+		    Parameters.shedExpired = (1 == Integer.parseInt(words[1]))?true:false;
+		} else if (words[0].compareToIgnoreCase("useMemoryMgnt") == 0) {
+		    Parameters.useMemoryMgnt = (1 == Integer.parseInt(words[1]))?true:false;
+		} else if (words[0].compareToIgnoreCase("payloadPoolSize") == 0) {
+		    //. payloadPoolSize <size class in bytes> <number of payloads>
+		    int sizeClass = MemoryManager.getSizeClass(Integer.parseInt(words[1]));
+		    Utilities.Assert(sizeClass >= 0 && MemoryManager.PAYLOAD_CLASSES[sizeClass] == Integer.parseInt(words[1]),
+				     "payloadPoolSize: "+words[1]+" is not one of the payload size classes");
+		    MemoryManager.PAYLOAD_POOL_SIZES[sizeClass] = Integer.parseInt(words[2]);
+		} else if (words[0].compareToIgnoreCase("poolChunkSize") == 0) {
+		    ObjectPool.CHUNK_SIZE = Integer.parseInt(words[1]);
+		} else if (words[0].compareToIgnoreCase("poolCeilingFactor") == 0) {
+		    ObjectPool.CEILING_FACTOR = Integer.parseInt(words[1]);
+		} else if (words[0].compareToIgnoreCase("poolAdmissionControl") == 0) {
+		    Parameters.poolAdmissionControl = (1 == Integer.parseInt(words[1]))?true:false;
+		} else if (words[0].compareToIgnoreCase("lazyPools") == 0) {
+		    Parameters.lazyPools = (1 == Integer.parseInt(words[1]))?true:false;
+		} else if (words[0].compareToIgnoreCase("poolWarmUp") == 0) {
+		    Parameters.poolWarmUp = (1 == Integer.parseInt(words[1]))?true:false;
+		} else if (words[0].compareToIgnoreCase("arenaPayloads") == 0) {
+		    Parameters.arenaPayloads = (1 == Integer.parseInt(words[1]))?true:false;
+		} else if (words[0].compareToIgnoreCase("payloadArenaSize") == 0) {
+		    MemoryManager.ARENA_SIZE = Integer.parseInt(words[1]);
+		} else if (words[0].compareToIgnoreCase("poolLeakDetection") == 0) {
+		    Parameters.poolLeakDetection = (1 == Integer.parseInt(words[1]))?true:false;
+		} else if (words[0].compareToIgnoreCase("optimisticRetries") == 0) {
+		    Parameters.retry = Integer.parseInt(words[1]);
+		} else if (words[0].compareToIgnoreCase("virtualThreads") == 0) {
+		    Parameters.virtualThreads = (1 == Integer.parseInt(words[1]))?true:false;
 		} else {
 		    
 		}
@@ -74,6 +119,11 @@ public class Main {
 	} catch (IOException e) {
 	    Utilities.Assert(false, "IO ERROR!");
 	}
+	//. Partial batches are flushed by a timer after half of the target, at tick resolution
+	Utilities.Assert(0 == Parameters.batchLatencyTarget
+			 || TimerWheel.TICK_MS*1000000 <= Parameters.batchLatencyTarget/2,
+			 "timerTick of "+TimerWheel.TICK_MS+"ms is too coarse for batchLatencyTarget, "
+			 +"which needs to be at least twice the tick");
     }
 	
     /**
@@ -20,6 +20,15 @@
 
 package sys;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import events.Event;
+import events.MemoryPoolEvent;
 import events.openflow.*;
 
 /**
@@ -33,221 +42,498 @@ public class MemoryManager {
     public static int FM_POOL_SIZE = 81920;
     public static int PO_POOL_SIZE = 81920;
     public static int PI_POOL_SIZE = 81920;
-    public static int DATA_POOL_SIZE = 81920;
 
-    public class MemoryPool {
-	public class FlowModPool {
-	    public FlowModEvent[] pool;
-	    public boolean[] bitmap;
-	    public int pos;
-	    public int freeNum;
-	}
+    /** Capacities (in bytes) of the size classes of PACKET_IN payloads */
+    public static final int[] PAYLOAD_CLASSES = {64, 128, 256, 512, 1500, 9000};
+    /** Number of preallocated payloads in each size class */
+    public static int[] PAYLOAD_POOL_SIZES = {81920, 16384, 8192, 4096, 4096, 256};
+
+    /** Capacities of the size classes of action arrays, for events with more than one action.
+     * Every pooled FlowMod/PacketOut already comes with room for one action
+     */
+    public static final int[] ACTION_CLASSES = {2, 4, 8, 16};
+    /** Number of preallocated action arrays in each size class */
+    public static int[] ACTION_POOL_SIZES = {8192, 4096, 1024, 256};
+
+    public ObjectPool<FlowModEvent> fm;
+    public ObjectPool<PacketOutEvent> po;
+    public ObjectPool<PacketInEvent> pi;
+    /** One pool of payloads for each of the PAYLOAD_CLASSES */
+    public ObjectPool<PacketInEvent.DataPayload>[] data;
+
+    /** Pools declared in the DAG configuration, by name */
+    private final HashMap<String, Pool<?>> pools = new HashMap<String, Pool<?>>();
+
+    /** One pool of action arrays for each of the ACTION_CLASSES */
+    public ObjectPool<PacketOutEvent.ActionSlab>[] actionSlabs;
+
+    /** Capacity (in bytes) of each off-heap payload arena */
+    public static int ARENA_SIZE = 4*1024*1024;
+    /** Payload handles pointing into the arenas, they own no byte[] */
+    public ObjectPool<PacketInEvent.DataPayload> arenaHandles;
+    /** The arena new payloads are carved from */
+    private PayloadArena currentArena = null;
+    /** Drained arenas ready for reuse */
+    private final LinkedList<PayloadArena> freeArenas = new LinkedList<PayloadArena>();
+    private int numArenas = 0;
+	
+    public MemoryManager() {
+	fm = new ObjectPool<FlowModEvent>("FM_POOL", FM_POOL_SIZE) {
+	    protected FlowModEvent newObject(int idx) {
+		FlowModEvent ret = new FlowModEvent(idx);
+		ret.flow = new PacketInEvent.FlowInfo();
+		ret.actions = new PacketOutEvent.Action[1];
+		ret.actions[0] = new PacketOutEvent.Action();
+		ret.inlineActions = ret.actions;
+		return ret;
+	    }
+	    protected int indexOf(FlowModEvent obj) {
+		return obj.poolIdx;
+	    }
+	    protected AtomicBoolean validOf(FlowModEvent obj) {
+		return obj.valid;
+	    }
+	};
 		
-	public class PacketOutPool {
-	    public PacketOutEvent[] pool;
-	    public boolean[] bitmap;
-	    public int pos;
-	    public int freeNum;
-	}
+	po = new ObjectPool<PacketOutEvent>("PO_POOL", PO_POOL_SIZE) {
+	    protected PacketOutEvent newObject(int idx) {
+		PacketOutEvent ret = new PacketOutEvent(idx);
+		ret.actions = new PacketOutEvent.Action[1];
+		ret.actions[0] = new PacketOutEvent.Action();
+		ret.inlineActions = ret.actions;
+		return ret;
+	    }
+	    protected int indexOf(PacketOutEvent obj) {
+		return obj.poolIdx;
+	    }
+	    protected AtomicBoolean validOf(PacketOutEvent obj) {
+		return obj.valid;
+	    }
+	};
 		
-	public class PacketInPool {
-	    public PacketInEvent[] pool;
-	    public boolean[] bitmap;
-	    public int pos;
-	    public int freeNum;
-	}
+	pi = new ObjectPool<PacketInEvent>("PI_POOL", PI_POOL_SIZE) {
+	    protected PacketInEvent newObject(int idx) {
+		return new PacketInEvent(idx);
+	    }
+	    protected int indexOf(PacketInEvent obj) {
+		return obj.poolIdx;
+	    }
+	    protected AtomicBoolean validOf(PacketInEvent obj) {
+		return obj.valid;
+	    }
+	};
 		
-	public class PacketInDataPayloadPool {
-	    public PacketInEvent.DataPayload[] pool;
-	    public boolean[] bitmap;
-	    public int pos;
-	    public int freeNum;
+	data = newPayloadPools();
+	actionSlabs = newActionPools();
+
+	fm.init();
+	po.init();
+	pi.init();
+	for (int i=0;i<data.length;i++) {
+	    data[i].init();
 	}
-		
-	public FlowModPool fm;
-	public PacketOutPool po;
-	public PacketInPool pi;
-	public PacketInDataPayloadPool data;
-		
-	public MemoryPool() {
-	    fm = new FlowModPool();
-	    po = new PacketOutPool();
-	    pi = new PacketInPool();
-	    data = new PacketInDataPayloadPool();
+	for (int i=0;i<actionSlabs.length;i++) {
+	    actionSlabs[i].init();
+	}
+
+	if (Parameters.arenaPayloads) {
+	    arenaHandles = new ObjectPool<PacketInEvent.DataPayload>("ARENA_HANDLES", PI_POOL_SIZE) {
+		protected PacketInEvent.DataPayload newObject(int idx) {
+		    return new PacketInEvent.DataPayload(idx, 0);
+		}
+		protected int indexOf(PacketInEvent.DataPayload obj) {
+		    return obj.poolIdx;
+		}
+		protected AtomicBoolean validOf(PacketInEvent.DataPayload obj) {
+		    return obj.valid;
+		}
+	    };
+	    arenaHandles.init();
 	}
     }
-	
-    public MemoryPool pool;
-	
-    public MemoryManager() {
-	pool = new MemoryPool();
-		
-	pool.fm.pool = new FlowModEvent[FM_POOL_SIZE];
-	pool.fm.bitmap = new boolean[FM_POOL_SIZE];
-	for (int i=0;i<FM_POOL_SIZE;i++) {
-	    pool.fm.pool[i] = new FlowModEvent(i);
-	    pool.fm.pool[i].actions = new PacketOutEvent.Action[1];
-	    pool.fm.pool[i].actions[0] = new PacketOutEvent.Action();
-	    pool.fm.bitmap[i] = false;
-	}
-	pool.fm.pos = 0;
-	pool.fm.freeNum = FM_POOL_SIZE;
-		
-	pool.po.pool = new PacketOutEvent[PO_POOL_SIZE];
-	pool.po.bitmap = new boolean[PO_POOL_SIZE];
-	for (int i=0;i<PO_POOL_SIZE;i++) {
-	    pool.po.pool[i] = new PacketOutEvent(i);
-	    pool.po.pool[i].actions = new PacketOutEvent.Action[1];
-	    pool.po.pool[i].actions[0] = new PacketOutEvent.Action();
-	    pool.po.bitmap[i] = false;
-	}
-	pool.po.pos = 0;
-	pool.po.freeNum = PO_POOL_SIZE;
-		
-	// TODO: right now actions can only contain one action,
-	// need to fix this to allow flexible actions allocation
-		
-	pool.pi.pool = new PacketInEvent[PI_POOL_SIZE];
-	pool.pi.bitmap = new boolean[PI_POOL_SIZE];
-	for (int i=0;i<PI_POOL_SIZE;i++) {
-	    pool.pi.pool[i] = new PacketInEvent(i);
-	    pool.pi.bitmap[i] = false;
-	}
-	pool.pi.pos = 0;
-	pool.pi.freeNum = PI_POOL_SIZE;
-		
-	pool.data.pool = new PacketInEvent.DataPayload[DATA_POOL_SIZE];
-	pool.data.bitmap = new boolean[DATA_POOL_SIZE];
-	for (int i=0;i<DATA_POOL_SIZE;i++) {
-	    // TODO: now fixed at 60 bytes, must be modified later!!!
-	    pool.data.pool[i] = new PacketInEvent.DataPayload(i, 60);
-	    pool.data.bitmap[i] = false;
+
+    /** The pool of one of the PAYLOAD_CLASSES, a named class so that arrays of it are typed */
+    private static class PayloadPool extends ObjectPool<PacketInEvent.DataPayload> {
+	final int sizeClass;
+
+	PayloadPool(int sc) {
+	    super("DATA_POOL_"+PAYLOAD_CLASSES[sc], PAYLOAD_POOL_SIZES[sc]);
+	    sizeClass = sc;
 	}
-	pool.data.pos = 0;
-	pool.data.freeNum = DATA_POOL_SIZE;
+	protected PacketInEvent.DataPayload newObject(int idx) {
+	    PacketInEvent.DataPayload payload = new PacketInEvent.DataPayload(idx, PAYLOAD_CLASSES[sizeClass]);
+	    payload.sizeClass = sizeClass;
+	    return payload;
+	}
+	protected int indexOf(PacketInEvent.DataPayload obj) {
+	    return obj.poolIdx;
+	}
+	protected AtomicBoolean validOf(PacketInEvent.DataPayload obj) {
+	    return obj.valid;
+	}
+    }
+
+    /** The pool of one of the ACTION_CLASSES */
+    private static class ActionPool extends ObjectPool<PacketOutEvent.ActionSlab> {
+	final int sizeClass;
+
+	ActionPool(int sc) {
+	    super("ACTION_POOL_"+ACTION_CLASSES[sc], ACTION_POOL_SIZES[sc]);
+	    sizeClass = sc;
+	}
+	protected PacketOutEvent.ActionSlab newObject(int idx) {
+	    return new PacketOutEvent.ActionSlab(idx, sizeClass, ACTION_CLASSES[sizeClass]);
+	}
+	protected int indexOf(PacketOutEvent.ActionSlab obj) {
+	    return obj.poolIdx;
+	}
+	protected AtomicBoolean validOf(PacketOutEvent.ActionSlab obj) {
+	    return obj.valid;
+	}
+    }
+
+    private ObjectPool<PacketInEvent.DataPayload>[] newPayloadPools() {
+	PayloadPool[] ret = new PayloadPool[PAYLOAD_CLASSES.length];
+	for (int i=0;i<PAYLOAD_CLASSES.length;i++) {
+	    ret[i] = new PayloadPool(i);
+	}
+	return ret;
+    }
+
+    private ObjectPool<PacketOutEvent.ActionSlab>[] newActionPools() {
+	ActionPool[] ret = new ActionPool[ACTION_CLASSES.length];
+	for (int i=0;i<ACTION_CLASSES.length;i++) {
+	    ret[i] = new ActionPool(i);
+	}
+	return ret;
+    }
+
+    /**
+     * Find the smallest size class which can hold size bytes
+     * @return -1 if size is larger than the largest class
+     */
+    public static int getSizeClass(int size) {
+	for (int i=0;i<PAYLOAD_CLASSES.length;i++) {
+	    if (size <= PAYLOAD_CLASSES[i])
+		return i;
+	}
+	return -1;
     }
 	
+    /*
+     * Pooled events and payloads are reference counted. alloc* hands out
+     * an object holding one reference; whoever shares it with another
+     * holder (e.g. po.data = pi.data) must retain() it, and each holder
+     * calls the matching free* function, which only returns the object
+     * to its pool when the last reference is dropped. Freeing an event
+     * also drops its reference to the payload it carries.
+     */
+
     public FlowModEvent allocFlowModEvent() {
-	FlowModEvent ret = null;
-	synchronized (pool.fm) {
-	    if (pool.fm.freeNum <= 0) {
-		System.err.println("FM_POOL OUT OF MEMORY!!");
-		System.exit(-1);
-		return null;
-	    }
-	    while (pool.fm.bitmap[pool.fm.pos]) {
-		pool.fm.pos = (pool.fm.pos+1)%FM_POOL_SIZE;
-	    }
-	    ret = pool.fm.pool[pool.fm.pos];
-	    ret.valid = true;
-	    pool.fm.bitmap[pool.fm.pos] = true;
-	    pool.fm.freeNum --;
-	    pool.fm.pos = (pool.fm.pos+1)%FM_POOL_SIZE;
-	}
+	FlowModEvent ret = fm.alloc();
+	ret.initRef();
+	ret.numActions = 1;
+	ret.deadline = Constants.NO_DEADLINE;
 	return ret;
     }
 	
-    public void freeFlowModEvent(FlowModEvent fm) {
-	if (fm.poolIdx < 0)
+    public void freeFlowModEvent(FlowModEvent e) {
+	if (null != e.owner) {
+	    e.owner.freeOwned(e);
 	    return;
-	synchronized (pool.fm) {
-	    pool.fm.bitmap[fm.poolIdx] = false;
-	    fm.valid = false;
-	    pool.fm.freeNum ++;
 	}
+	if (e.poolIdx < 0 || !e.release())
+	    return;
+	freeActions(e);
+	fm.free(e);
     }
 	
     public PacketOutEvent allocPacketOutEvent() {
-	PacketOutEvent ret = null;
-	synchronized (pool.po) {
-	    if (pool.po.freeNum <= 0) {
-		System.err.println("PO_POOL OUT OF MEMORY!!");
-		System.exit(-1);
-		return null;
-	    }
-	    while (pool.po.bitmap[pool.po.pos]) {
-		pool.po.pos = (pool.po.pos+1)%PO_POOL_SIZE;
-	    }
-	    ret = pool.po.pool[pool.po.pos];
-	    ret.valid = true;
-	    pool.po.bitmap[pool.po.pos] = true;
-	    pool.po.freeNum --;
-	    pool.po.pos = (pool.po.pos+1)%PO_POOL_SIZE;
-	}
+	PacketOutEvent ret = po.alloc();
+	ret.initRef();
+	ret.numActions = 1;
+	ret.deadline = Constants.NO_DEADLINE;
 	return ret;
     }
 	
-    public void freePacketOutEvent(PacketOutEvent po) {
-	if (po.poolIdx < 0)
+    public void freePacketOutEvent(PacketOutEvent e) {
+	if (null != e.owner) {
+	    e.owner.freeOwned(e);
+	    return;
+	}
+	//. A PacketOut from the heap still holds a reference to a pooled payload
+	if (e.poolIdx >= 0 && !e.release())
 	    return;
-	synchronized (pool.po) {
-	    po.data = null;
-	    pool.po.bitmap[po.poolIdx] = false;
-	    po.valid = false;
-	    pool.po.freeNum ++;
+	if (null != e.data) {
+	    freePacketInEventDataPayload(e.data);
+	    e.data = null;
 	}
+	if (e.poolIdx < 0)
+	    return;
+	freeActions(e);
+	po.free(e);
+    }
+
+    /** Give back the ActionSlab of a pooled event, if any, and return to its inline action */
+    private void freeActions(ActionsEvent e) {
+	if (null != e.actionSlab) {
+	    actionSlabs[e.actionSlab.sizeClass].free(e.actionSlab);
+	    e.actionSlab = null;
+	}
+	e.actions = e.inlineActions;
     }
 	
     public PacketInEvent allocPacketInEvent() {
-	PacketInEvent ret = null;
-	synchronized (pool.pi) {
-	    if (pool.pi.freeNum <= 0) {
-		System.err.println("PI_POOL OUT OF MEMORY!!");
-		System.exit(-1);
-		return null;
-	    }
-	    while (pool.pi.bitmap[pool.pi.pos]) {
-		pool.pi.pos = (pool.pi.pos+1)%PI_POOL_SIZE;
-	    }
-	    ret = pool.pi.pool[pool.pi.pos];
-	    ret.valid = true;
-	    pool.pi.bitmap[pool.pi.pos] = true;
-	    pool.pi.freeNum --;
-	    pool.pi.pos = (pool.pi.pos+1)%PI_POOL_SIZE;
-	}
+	PacketInEvent ret = pi.alloc();
+	ret.initRef();
 	return ret;
     }
 	
-    public void freePacketInEvent(PacketInEvent pi) {
-	if (pi.poolIdx < 0)
+    public void freePacketInEvent(PacketInEvent e) {
+	if (null != e.owner) {
+	    e.owner.freeOwned(e);
 	    return;
-	synchronized (pool.pi) {
-	    pi.data = null;
-	    pool.pi.bitmap[pi.poolIdx] = false;
-	    pi.valid = false;
-	    pool.pi.freeNum ++;
 	}
+	if (e.poolIdx >= 0 && !e.release())
+	    return;
+	if (null != e.data) {
+	    freePacketInEventDataPayload(e.data);
+	    e.data = null;
+	}
+	pi.free(e);
     }
 	
-    public PacketInEvent.DataPayload allocPacketInEventDataPayload(int size) {
-	// TODO: right now the size is kinda ignored, all sizes are 60 bytes in the pool
-	PacketInEvent.DataPayload ret = null;
-	synchronized (pool.data) {
-	    if (pool.data.freeNum <= 0) {
-		System.err.println("DATA_POOL OUT OF MEMORY!!");
-		System.exit(-1);
-		return null;
+    /**
+     * Register a pool declared in the DAG configuration
+     */
+    public <T extends MemoryPoolEvent> Pool<T> registerPool(String name, Class<T> cls, int size) {
+	Utilities.Assert(!pools.containsKey(name), "Pool "+name+" is declared twice");
+	Pool<T> ret = new Pool<T>(name, cls, size);
+	ret.init();
+	pools.put(name, ret);
+	return ret;
+    }
+
+    /**
+     * Look up a registered pool
+     * @return null if no pool of that name and event class was declared
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends MemoryPoolEvent> Pool<T> getPool(String name, Class<T> cls) {
+	Pool<?> ret = pools.get(name);
+	if (null == ret || !cls.isAssignableFrom(ret.getType()))
+	    return null;
+	return (Pool<T>)ret;
+    }
+
+    /** Free an event from any pool, the registered ones or the MemoryManager's own */
+    public void freeEvent(MemoryPoolEvent e) {
+	if (null != e.owner) {
+	    e.owner.freeOwned(e);
+	} else if (e instanceof FlowModEvent) {
+	    freeFlowModEvent((FlowModEvent)e);
+	} else if (e instanceof PacketOutEvent) {
+	    freePacketOutEvent((PacketOutEvent)e);
+	} else if (e instanceof PacketInEvent) {
+	    freePacketInEvent((PacketInEvent)e);
+	}
+    }
+
+    /** Free the pooled events held by a view which is discarded, grouped e.g. by dpid */
+    public void freeEvents(Collection<? extends List<Event>> lists) {
+	for (List<Event> events : lists) {
+	    for (Event e : events) {
+		freeEvent((MemoryPoolEvent)e);
 	    }
-	    while (pool.data.bitmap[pool.data.pos]) {
-		pool.data.pos = (pool.data.pos+1)%DATA_POOL_SIZE;
+	}
+    }
+
+    /**
+     * Make room for n actions in a FlowMod or PacketOut. Beyond the one
+     * preallocated action, the array comes from the smallest ACTION_CLASSES
+     * pool that fits, and goes back to it when the event is freed. Only the
+     * first n entries of the returned array are sent, call
+     * e.computeActionsLen() once they are filled in
+     */
+    public PacketOutEvent.Action[] allocActions(ActionsEvent e, int n) {
+	if (null == e.actions || n > e.actions.length) {
+	    PacketOutEvent.ActionSlab slab = (e.poolIdx < 0) ? null : allocActionSlab(n);
+	    if (null != e.actionSlab) {
+		actionSlabs[e.actionSlab.sizeClass].free(e.actionSlab);
 	    }
-	    ret = pool.data.pool[pool.data.pos];
-	    ret.valid = true;
-	    pool.data.bitmap[pool.data.pos] = true;
-	    pool.data.freeNum --;
-	    pool.data.pos = (pool.data.pos+1)%DATA_POOL_SIZE;
+	    e.actionSlab = slab;
+	    e.actions = (null == slab) ? newActions(n) : slab.actions;
 	}
+	e.numActions = n;
+	return e.actions;
+    }
+
+    /** @return null if n is larger than the largest of the ACTION_CLASSES */
+    private PacketOutEvent.ActionSlab allocActionSlab(int n) {
+	for (int i=0;i<ACTION_CLASSES.length;i++) {
+	    if (n <= ACTION_CLASSES[i])
+		return actionSlabs[i].alloc();
+	}
+	return null;
+    }
+
+    private static PacketOutEvent.Action[] newActions(int n) {
+	PacketOutEvent.Action[] ret = new PacketOutEvent.Action[n];
+	for (int i=0;i<n;i++) {
+	    ret[i] = new PacketOutEvent.Action();
+	}
+	return ret;
+    }
+
+    /**
+     * Allocate a payload from the smallest size class that fits size bytes.
+     * Payloads larger than the largest class are allocated on the heap.
+     * With Parameters.arenaPayloads the bytes are carved from an off-heap arena instead
+     */
+    public PacketInEvent.DataPayload allocPacketInEventDataPayload(int size) {
+	if (Parameters.arenaPayloads && size <= ARENA_SIZE) {
+	    return allocArenaPayload(size);
+	}
+	int sizeClass = getSizeClass(size);
+	if (sizeClass < 0) {
+	    return new PacketInEvent.DataPayload(size);
+	}
+	PacketInEvent.DataPayload ret = data[sizeClass].alloc();
+	ret.initRef();
 	ret.size = size;
 	return ret;
     }
 	
-    public void freePacketInEventDataPayload(PacketInEvent.DataPayload data) {
-	if (data.poolIdx < 0)
+    public void freePacketInEventDataPayload(PacketInEvent.DataPayload d) {
+	if (null == d.arena) {
+	    if (d.poolIdx >= 0 && d.release()) {
+		data[d.sizeClass].free(d);
+	    }
+	    return;
+	}
+	if (!d.release())
 	    return;
-	synchronized (pool.data) {
-	    pool.data.bitmap[data.poolIdx] = false;
-	    data.valid = false;
-	    pool.data.freeNum ++;
+	//. Handles from the heap, when arenaHandles overflowed, hold arena space all the same
+	PayloadArena arena = d.arena;
+	d.arena = null;
+	if (d.poolIdx >= 0) {
+	    arenaHandles.free(d);
+	}
+	if (arena.release()) {
+	    recycleArena(arena);
 	}
     }
+
+    private PacketInEvent.DataPayload allocArenaPayload(int size) {
+	PayloadArena arena;
+	int offset;
+	synchronized (freeArenas) {
+	    if (null == currentArena) {
+		currentArena = nextArena();
+	    }
+	    offset = currentArena.alloc(size);
+	    if (offset < 0) {
+		//. The current arena is full, it will be recycled as a whole
+		//. as soon as all of its payloads have been sent out
+		if (currentArena.seal()) {
+		    currentArena.reset();
+		    freeArenas.addLast(currentArena);
+		}
+		currentArena = nextArena();
+		offset = currentArena.alloc(size);
+	    }
+	    arena = currentArena;
+	}
+	PacketInEvent.DataPayload ret = arenaHandles.alloc();
+	ret.initRef();
+	ret.arena = arena;
+	ret.offset = offset;
+	ret.size = size;
+	return ret;
+    }
+
+    private PayloadArena nextArena() {
+	if (freeArenas.isEmpty()) {
+	    numArenas ++;
+	    return new PayloadArena(ARENA_SIZE);
+	}
+	return freeArenas.removeFirst();
+    }
+
+    private void recycleArena(PayloadArena arena) {
+	arena.reset();
+	synchronized (freeArenas) {
+	    freeArenas.addLast(arena);
+	}
+    }
+
+    /**
+     * Populate all lazy pools up to their initial sizes, the built-in ones
+     * first since they are on the PACKET_IN path
+     */
+    public void warmUp() {
+	ArrayList<ObjectPool<?>> all = new ArrayList<ObjectPool<?>>();
+	all.add(pi);
+	for (int i=0;i<data.length;i++) {
+	    all.add(data[i]);
+	}
+	if (null != arenaHandles) {
+	    all.add(arenaHandles);
+	}
+	all.add(fm);
+	all.add(po);
+	for (int i=0;i<actionSlabs.length;i++) {
+	    all.add(actionSlabs[i]);
+	}
+	all.addAll(pools.values());
+	for (ObjectPool<?> p : all) {
+	    p.warmUp();
+	}
+    }
+
+    /** Print the live objects of all pools, when leak detection is on */
+    public void printLeaks() {
+	fm.printLeaks();
+	po.printLeaks();
+	pi.printLeaks();
+	for (int i=0;i<data.length;i++) {
+	    data[i].printLeaks();
+	}
+	for (int i=0;i<actionSlabs.length;i++) {
+	    actionSlabs[i].printLeaks();
+	}
+	if (null != arenaHandles) {
+	    arenaHandles.printLeaks();
+	}
+	for (Pool<?> p : pools.values()) {
+	    p.printLeaks();
+	}
+    }
+
+    /** Print occupancy and high-water mark of all pools */
+    public void printStats() {
+	printPoolStats(fm);
+	printPoolStats(po);
+	printPoolStats(pi);
+	for (int i=0;i<data.length;i++) {
+	    printPoolStats(data[i]);
+	}
+	for (int i=0;i<actionSlabs.length;i++) {
+	    printPoolStats(actionSlabs[i]);
+	}
+	for (Pool<?> p : pools.values()) {
+	    printPoolStats(p);
+	}
+	if (null != arenaHandles) {
+	    printPoolStats(arenaHandles);
+	    synchronized (freeArenas) {
+		System.out.println(String.format("  PAYLOAD_ARENAS: %d arenas of %d bytes off-heap, %d free",
+						 numArenas, ARENA_SIZE, freeArenas.size()));
+	    }
+	}
+    }
+
+    private void printPoolStats(ObjectPool<?> p) {
+	System.out.println("  "+p.getStats());
+    }
 }
@@ -0,0 +1,441 @@
+/*
+  ObjectPool.java
+
+  Copyright (C) 2010  Rice University
+
+  This software is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This software is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this software; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package sys;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A pool of preallocated objects used by the MemoryManager.
+ * Each TaskManager worker owns a small cache (magazine) in front of the
+ * shared pool, which is refilled from and flushed to the shared pool in
+ * batches. So the common alloc/free path of a worker takes no lock.
+ * Threads that are not TaskManager workers go to the shared pool directly.
+ *
+ * An object can be freed by a different thread than the one that
+ * allocated it, it simply goes into the freeing worker's magazine.
+ *
+ * The pool is elastic: when it runs dry it grows by CHUNK_SIZE objects
+ * at a time, up to CEILING_FACTOR times its initial size. After a
+ * sustained period of low occupancy it shrinks back towards the initial
+ * size. Past the ceiling, objects are allocated on the heap instead (and
+ * simply ignored when freed), and admission control is signaled to the
+ * driver if Parameters.poolAdmissionControl is set.
+ *
+ * With Parameters.lazyPools set, init() creates no objects at all. The
+ * pool is then populated chunk by chunk on demand, or ahead of demand by
+ * warmUp() running in the background.
+ *
+ * With Parameters.poolLeakDetection set, the pool remembers where each
+ * live object was allocated, so that objects never freed can be traced.
+ */
+public abstract class ObjectPool<T> {
+    /** How many objects are moved between a magazine and the shared pool at once */
+    public static int MAGAZINE_BATCH = 32;
+
+    /** How many objects the shared pool grows or shrinks by at once */
+    public static int CHUNK_SIZE = 8192;
+
+    /** A pool never grows beyond CEILING_FACTOR times its initial size */
+    public static int CEILING_FACTOR = 4;
+
+    /** Occupancy below 1/SHRINK_RATIO of the size is considered low */
+    public static int SHRINK_RATIO = 4;
+
+    /** How many consecutive returns with low occupancy before shrinking */
+    public static int SHRINK_AFTER = 65536;
+
+    /** A pool past its ceiling stops pressing the driver once its
+     * occupancy is back under this percentage of the ceiling */
+    public static int RELIEF_PERCENT = 75;
+
+    /** Number of pools currently pressing the driver, protected by ObjectPool.class */
+    private static int pressuredPools = 0;
+
+    /** Per-worker cache of free objects, only touched by its own worker */
+    private static class Magazine {
+	Object[] items = new Object[MAGAZINE_BATCH*2];
+	int count = 0;
+    }
+
+    /** Name of the pool, used in error messages */
+    String name;
+
+    /** Number of objects currently owned by this pool */
+    int size;
+    int initialSize;
+    int ceiling;
+
+    /** Index given to the next object created for this pool */
+    int nextIdx;
+
+    /** The shared pool, free objects are kept on a stack */
+    Object[] freeStack;
+    int freeNum;
+
+    /** The largest number of objects ever taken out of the shared pool */
+    int highWaterMark;
+
+    /** Consecutive returns seen with low occupancy */
+    int lowChecks;
+
+    long growths;
+    long shrinks;
+    long fallbacks;
+
+    /** Whether this pool reached its ceiling and is pressing the driver */
+    boolean pressured = false;
+
+    private Magazine[] magazines;
+
+    /** Allocation site of every live object, only used for leak detection */
+    private IdentityHashMap<Object, Throwable> liveSites;
+
+    public ObjectPool(String n, int s) {
+	name = n;
+	initialSize = s;
+	ceiling = s * CEILING_FACTOR;
+    }
+
+    /** Create the object that lives at position idx of the pool,
+     * idx is -1 for objects allocated on the heap past the ceiling */
+    protected abstract T newObject(int idx);
+
+    /** The position of obj in the pool, negative if obj is not from a pool */
+    protected abstract int indexOf(T obj);
+
+    /**
+     * The flag telling whether obj is in use. It is flipped with
+     * compareAndSet, so that of two threads freeing the same object only
+     * one gets to return it
+     */
+    protected abstract AtomicBoolean validOf(T obj);
+
+    /** Preallocate the initial objects of this pool, unless pools are lazy */
+    public void init() {
+	size = 0;
+	nextIdx = 0;
+	freeNum = 0;
+	freeStack = new Object[initialSize];
+	highWaterMark = 0;
+	if (!Parameters.lazyPools) {
+	    grow(initialSize);
+	}
+
+	magazines = new Magazine[Math.max(Parameters.divide, 1)];
+	for (int i=0;i<magazines.length;i++) {
+	    magazines[i] = new Magazine();
+	}
+    }
+
+    @SuppressWarnings("unchecked")
+    public T alloc() {
+	T ret = null;
+	int id = TaskManager.getWorkerIDOfCurrentThread();
+	if (id < 0 || id >= magazines.length) {
+	    synchronized (this) {
+		ret = (T)takeShared();
+	    }
+	} else {
+	    Magazine m = magazines[id];
+	    if (0 == m.count) {
+		refill(m);
+	    }
+	    if (m.count > 0) {
+		m.count --;
+		ret = (T)m.items[m.count];
+		m.items[m.count] = null;
+	    }
+	}
+	if (null == ret) {
+	    ret = overflow();
+	}
+	validOf(ret).set(true);
+	if (Parameters.poolLeakDetection) {
+	    recordAlloc(ret);
+	}
+	return ret;
+    }
+
+    public void free(T obj) {
+	int idx = indexOf(obj);
+	//. Not from this pool, or already freed
+	if (idx < 0 || !validOf(obj).compareAndSet(true, false))
+	    return;
+	if (Parameters.poolLeakDetection) {
+	    recordFree(obj);
+	}
+	int id = TaskManager.getWorkerIDOfCurrentThread();
+	if (id < 0 || id >= magazines.length) {
+	    boolean relieved;
+	    synchronized (this) {
+		returnShared(obj);
+		relieved = checkRelief();
+	    }
+	    if (relieved) {
+		relieve();
+	    }
+	    return;
+	}
+	Magazine m = magazines[id];
+	if (m.count == m.items.length) {
+	    flush(m);
+	}
+	m.items[m.count++] = obj;
+    }
+
+    /**
+     * The pool has reached its ceiling, fall back to heap allocation
+     */
+    private T overflow() {
+	boolean press = false;
+	synchronized (this) {
+	    fallbacks ++;
+	    if (Parameters.poolAdmissionControl && !pressured) {
+		pressured = true;
+		press = true;
+	    }
+	}
+	if (press) {
+	    synchronized (ObjectPool.class) {
+		pressuredPools ++;
+		Parameters.memoryPressure = true;
+	    }
+	    System.err.println(name+" reached its ceiling of "+ceiling+", suspending the driver");
+	}
+	return newObject(-1);
+    }
+
+    /**
+     * Whether this pool has just stopped pressing the driver, because its
+     * occupancy dropped under RELIEF_PERCENT of the ceiling. Must hold the
+     * pool monitor, and call relieve() after releasing it if true
+     */
+    private boolean checkRelief() {
+	if (pressured && (long)(size - freeNum) * 100 <= (long)ceiling * RELIEF_PERCENT) {
+	    pressured = false;
+	    return true;
+	}
+	return false;
+    }
+
+    /** Lift the memory pressure once no pool presses any more, and let the driver decide whether to resume */
+    private void relieve() {
+	synchronized (ObjectPool.class) {
+	    pressuredPools --;
+	    if (pressuredPools > 0) {
+		return;
+	    }
+	    Parameters.memoryPressure = false;
+	}
+	System.err.println(name+" is back under its ceiling");
+	if (null != Parameters.am && null != Parameters.am.vm.driver) {
+	    Parameters.am.vm.driver.tryResume();
+	}
+    }
+
+    /**
+     * Take one free object from the shared pool, must hold the pool monitor
+     * @return null if the pool is empty and cannot grow any more
+     */
+    private Object takeShared() {
+	if (freeNum <= 0) {
+	    if (size >= ceiling) {
+		return null;
+	    }
+	    //. Only growing past the initial size is elastic growth,
+	    //. below it a lazy pool is just being populated
+	    if (size >= initialSize) {
+		growths ++;
+	    }
+	    grow(Math.min(CHUNK_SIZE, ceiling - size));
+	}
+	freeNum --;
+	Object ret = freeStack[freeNum];
+	freeStack[freeNum] = null;
+	if (size - freeNum > highWaterMark) {
+	    highWaterMark = size - freeNum;
+	}
+	return ret;
+    }
+
+    /** Return obj to the shared pool, must hold the pool monitor */
+    private void returnShared(Object obj) {
+	freeStack[freeNum] = obj;
+	freeNum ++;
+
+	if (size > initialSize && (size - freeNum) * SHRINK_RATIO < size) {
+	    lowChecks ++;
+	    if (lowChecks >= SHRINK_AFTER) {
+		shrink(Math.min(CHUNK_SIZE, Math.min(size - initialSize, freeNum)));
+		lowChecks = 0;
+	    }
+	} else {
+	    lowChecks = 0;
+	}
+    }
+
+    /** Add n new objects to the shared pool, must hold the pool monitor */
+    private void grow(int n) {
+	if (freeStack.length < size + n) {
+	    Object[] newStack = new Object[size + n];
+	    System.arraycopy(freeStack, 0, newStack, 0, freeNum);
+	    freeStack = newStack;
+	}
+	for (int i=0;i<n;i++) {
+	    freeStack[freeNum++] = newObject(nextIdx++);
+	}
+	size += n;
+    }
+
+    /**
+     * Populate a lazy pool up to its initial size, one chunk at a time so
+     * that allocations by the workers are never blocked for long
+     */
+    public void warmUp() {
+	while (true) {
+	    synchronized (this) {
+		if (size >= initialSize)
+		    return;
+		grow(Math.min(CHUNK_SIZE, initialSize - size));
+	    }
+	    Thread.yield();
+	}
+    }
+
+    /** Drop n free objects from the shared pool, must hold the pool monitor */
+    private void shrink(int n) {
+	for (int i=0;i<n;i++) {
+	    freeNum --;
+	    freeStack[freeNum] = null;
+	}
+	size -= n;
+	shrinks ++;
+    }
+
+    private void refill(Magazine m) {
+	synchronized (this) {
+	    for (int i=0;i<MAGAZINE_BATCH;i++) {
+		Object obj = takeShared();
+		if (null == obj)
+		    break;
+		m.items[m.count++] = obj;
+	    }
+	}
+    }
+
+    private void flush(Magazine m) {
+	boolean relieved;
+	synchronized (this) {
+	    for (int i=0;i<MAGAZINE_BATCH;i++) {
+		m.count --;
+		returnShared(m.items[m.count]);
+		m.items[m.count] = null;
+	    }
+	    relieved = checkRelief();
+	}
+	if (relieved) {
+	    relieve();
+	}
+    }
+
+    /** Number of objects that are free in the shared pool */
+    public synchronized int getFreeNum() {
+	return freeNum;
+    }
+
+    public synchronized int getSize() {
+	return size;
+    }
+
+    /**
+     * Number of objects taken out of the shared pool, including those
+     * cached in the magazines of the workers
+     */
+    public synchronized int getOccupancy() {
+	return size - freeNum;
+    }
+
+    public synchronized int getHighWaterMark() {
+	return highWaterMark;
+    }
+
+    public String getName() {
+	return name;
+    }
+
+    private synchronized void recordAlloc(Object obj) {
+	if (null == liveSites) {
+	    liveSites = new IdentityHashMap<Object, Throwable>();
+	}
+	liveSites.put(obj, new Throwable("allocated from "+name));
+    }
+
+    private synchronized void recordFree(Object obj) {
+	if (null != liveSites) {
+	    liveSites.remove(obj);
+	}
+    }
+
+    /**
+     * Print the number of live objects of this pool grouped by their
+     * allocation sites. Objects that stay here while the system is idle
+     * have been leaked
+     */
+    public synchronized void printLeaks() {
+	if (null == liveSites || liveSites.isEmpty()) {
+	    return;
+	}
+	HashMap<String, Integer> sites = new HashMap<String, Integer>();
+	for (Throwable t : liveSites.values()) {
+	    StackTraceElement[] trace = t.getStackTrace();
+	    StringBuilder site = new StringBuilder();
+	    //. Skip the frames inside the ObjectPool and MemoryManager
+	    int shown = 0;
+	    for (int i=0;i<trace.length && shown<4;i++) {
+		String cls = trace[i].getClassName();
+		if (cls.startsWith("sys.ObjectPool") || cls.startsWith("sys.MemoryManager"))
+		    continue;
+		site.append("\n      at ").append(trace[i]);
+		shown ++;
+	    }
+	    String key = site.toString();
+	    Integer count = sites.get(key);
+	    sites.put(key, null == count ? 1 : count+1);
+	}
+	System.out.println("  "+name+": "+liveSites.size()+" live objects");
+	for (Map.Entry<String, Integer> e : sites.entrySet()) {
+	    System.out.println("    "+e.getValue()+" allocated"+e.getKey());
+	}
+    }
+
+    public synchronized String getStats() {
+	return name+": size="+size
+	    +" occupancy="+(size - freeNum)
+	    +" highWaterMark="+highWaterMark
+	    +" ceiling="+ceiling
+	    +" growths="+growths
+	    +" shrinks="+shrinks
+	    +" heapFallbacks="+fallbacks;
+    }
+}
@@ -69,6 +69,7 @@ public class Parameters {
     public static int sensitive = 4;
     public static int multiplier = 20000;
 	
+    /** How many times an Optimistic DAG instance is tried before it waits like others */
     public static int retry = 4;
 	
     public static boolean optimized = false;
@@ -132,4 +133,65 @@ public class Parameters {
     public static int listenPort = 0;
 
     public static boolean runConsole = true;
+
+    /** End-to-end flow-setup deadline for each PacketInEvent, in nanoseconds
+     * 0 means no deadline is attached
+     */
+    public static long flowSetupDeadline = 0;
+
+    /** At most how many triggers a waiting DAG instance absorbs, and for
+     * how long after it was created, in nanoseconds. Later triggers make
+     * the DAG run once more after it finishes */
+    public static int coalesceCount = 64;
+    public static long coalesceWindow = 5000000;
+
+    /** Percentage by which periods of the TimerWheel are randomly stretched or shrunk */
+    public static int timerJitter = 0;
+
+    /** Whether work whose deadline has passed should be shed,
+     * e.g. flooding the packet instead of computing a route
+     */
+    public static boolean shedExpired = false;
+
+    /** Whether DAG application nodes run on virtual threads instead of
+     * the TaskManager workers. The driver and output stages always stay
+     * on the TaskManager (platform) threads
+     */
+    public static boolean virtualThreads = false;
+
+    /** Whether to suspend the driver when a memory pool reached its ceiling */
+    public static boolean poolAdmissionControl = false;
+    /** Set while some memory pool is past its ceiling, and admission control is on */
+    public static volatile boolean memoryPressure = false;
+
+    /** Whether memory pools are populated on demand instead of at startup */
+    public static boolean lazyPools = false;
+    /** Whether lazy pools are populated by a background thread once the driver is up */
+    public static boolean poolWarmUp = false;
+
+    /** Whether PACKET_IN payload bytes are stored in off-heap arenas */
+    public static boolean arenaPayloads = false;
+
+    /** Whether the memory pools record the allocation site of every live object */
+    public static boolean poolLeakDetection = false;
+
+    /** Latency target of PACKET_IN input batching, in nanoseconds. With 0
+     * batches are cut at the fixed batchInputNum instead */
+    public static long batchLatencyTarget = 0;
+
+    public static MyLong deadlineMisses = new MyLong((long)0);
+    public static MyLong shedCount = new MyLong((long)0);
+    public static MyLong optimisticAborts = new MyLong((long)0);
+    /** Number of group commits, and of DAG instances committed by them */
+    public static MyLong groupCommits = new MyLong((long)0);
+    public static MyLong groupCommitted = new MyLong((long)0);
+    /** Number of triggers of non-concurrent DAGs, and of those absorbed by
+     * an existing instance. Protected by the monitor of am.running */
+    public static MyLong dagTriggers = new MyLong((long)0);
+    public static MyLong coalescedTriggers = new MyLong((long)0);
+    /** Number of input batches flushed, of those flushed by the latency
+     * timer, and of the events in them. Protected by batchFlushes */
+    public static MyLong batchFlushes = new MyLong((long)0);
+    public static MyLong timedFlushes = new MyLong((long)0);
+    public static MyLong batchedEvents = new MyLong((long)0);
 }
@@ -0,0 +1,102 @@
+/*
+  PayloadArena.java
+
+  Copyright (C) 2010  Rice University
+
+  This software is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This software is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this software; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package sys;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A chunk of off-heap memory which PACKET_IN payloads are carved from
+ * with a bump pointer. Payloads are never freed one by one: the arena
+ * only counts how many of them are still alive, and once it is sealed
+ * (no more room) and the last one was released, the whole arena is
+ * recycled at once by resetting the bump pointer.
+ *
+ * Keeping the bytes out of the Java heap keeps hundreds of thousands
+ * of in-flight payloads out of the old generation the GC has to mark.
+ */
+public class PayloadArena {
+    private final ByteBuffer buffer;
+    private int top = 0;
+    private int live = 0;
+    private boolean sealed = false;
+
+    public PayloadArena(int capacity) {
+	buffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    public int getCapacity() {
+	return buffer.capacity();
+    }
+
+    /**
+     * Carve size bytes out of this arena
+     * @return the offset of the new payload, -1 if there is not enough room left
+     */
+    public synchronized int alloc(int size) {
+	if (sealed || top + size > buffer.capacity())
+	    return -1;
+	int ret = top;
+	top += size;
+	live ++;
+	return ret;
+    }
+
+    /**
+     * No more payloads will be carved from this arena
+     * @return true if no payload is alive, and the arena can be recycled right now
+     */
+    public synchronized boolean seal() {
+	sealed = true;
+	return 0 == live;
+    }
+
+    /**
+     * One payload of this arena has been freed
+     * @return true if that was the last one of a sealed arena, which can now be recycled
+     */
+    public synchronized boolean release() {
+	live --;
+	return sealed && 0 == live;
+    }
+
+    /** Make all of the arena available again, only called after it was sealed and drained */
+    public synchronized void reset() {
+	top = 0;
+	live = 0;
+	sealed = false;
+    }
+
+    public void put(int offset, byte[] src, int pos, int length) {
+	buffer.put(offset, src, pos, length);
+    }
+
+    public void get(int offset, byte[] dst, int pos, int length) {
+	buffer.get(offset, dst, pos, length);
+    }
+
+    public byte get(int offset) {
+	return buffer.get(offset);
+    }
+
+    public void put(int offset, byte b) {
+	buffer.put(offset, b);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+  Pool.java
+
+  Copyright (C) 2010  Rice University
+
+  This software is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This software is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this software; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package sys;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import events.MemoryPoolEvent;
+
+/**
+ * A pool of events which applications and views can declare for their
+ * own high-churn objects, in the Pools section of the DAG configuration:
+ *
+ *   Pools
+ *     PacketOutEvent lldp_probes 1024
+ *   End Pools
+ *
+ * The event class needs a constructor taking the pool index. Objects are
+ * reference counted the same way as the MemoryManager's own events, and
+ * remember this pool so that MemoryManager.freeEvent can hand them back.
+ */
+public class Pool<T extends MemoryPoolEvent> extends ObjectPool<T> {
+    private final Class<T> type;
+    private final Constructor<T> ctor;
+
+    public Pool(String name, Class<T> cls, int size) {
+	super(name, size);
+	type = cls;
+	try {
+	    ctor = cls.getConstructor(int.class);
+	} catch (NoSuchMethodException e) {
+	    throw new IllegalArgumentException(cls.getName()+" has no constructor taking the pool index");
+	}
+    }
+
+    public Class<T> getType() {
+	return type;
+    }
+
+    protected T newObject(int idx) {
+	T ret;
+	try {
+	    ret = ctor.newInstance(idx);
+	} catch (Exception e) {
+	    throw new RuntimeException("Cannot create "+type.getName()+" for pool "+getName(), e);
+	}
+	ret.owner = this;
+	return ret;
+    }
+    protected int indexOf(T obj) {
+	return obj.poolIdx;
+    }
+    protected AtomicBoolean validOf(T obj) {
+	return obj.valid;
+    }
+
+    /** Allocate an object holding one reference */
+    public T alloc() {
+	T ret = super.alloc();
+	ret.initRef();
+	return ret;
+    }
+
+    /** Drop one reference, the object goes back to the pool with the last one */
+    public void free(T obj) {
+	if (obj.poolIdx < 0 || !obj.release())
+	    return;
+	super.free(obj);
+    }
+
+    /** Free an event known only as a MemoryPoolEvent, whose owner is this pool */
+    @SuppressWarnings("unchecked")
+    void freeOwned(MemoryPoolEvent e) {
+	free((T)e);
+    }
+}
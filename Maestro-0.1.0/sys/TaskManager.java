@@ -20,8 +20,9 @@
 
 package sys;
 
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.LinkedList;
+import java.util.PriorityQueue;
 
 /**
  * TaskManager: the worker threads scheduler
@@ -30,45 +31,63 @@ import java.util.LinkedList;
 public class TaskManager {
     private final PoolWorker[] threads;
     private final Queue queue;
-    private final HashMap<Long, Integer> lid2id;
 
     public TaskManager(int nThreads) {
 	queue = new Queue();
 	threads = new PoolWorker[nThreads];
-	lid2id = new HashMap<Long, Integer>();
 
 	for (int i = 0; i < nThreads; i++) {
 	    threads[i] = new PoolWorker(i);
 	    threads[i].setName("PoolWorker #" + i);
 	    threads[i].start();
-	    lid2id.put(threads[i].getId(), i);
 	}
     }
 
+    /**
+     * The ID of the current thread if it is a TaskManager worker. Unlike
+     * getCurrentWorkerID() this tells non-worker threads (e.g. virtual
+     * threads) apart from the workers
+     * @return the worker ID, -1 if the current thread is not a worker
+     */
+    public static int getWorkerIDOfCurrentThread() {
+	Thread t = Thread.currentThread();
+	if (t instanceof PoolWorker)
+	    return ((PoolWorker)t).myID;
+	return -1;
+    }
+
+    /** Whether the current thread is one of the workers of this TaskManager */
+    public boolean isWorkerThread() {
+	return getWorkerIDOfCurrentThread() >= 0;
+    }
+
     public int getQueueSize() {
 	return queue.getSize();
     }
 	
+    /**
+     * The ID of the current worker, used to pick a partition of the
+     * concurrent views. Other threads, such as the virtual threads running
+     * DAG nodes, are spread over the partitions by their thread ID
+     */
     public int getCurrentWorkerID() {
-	Integer ret = lid2id.get(Thread.currentThread().getId());
-	if (null == ret)
-	    return 0;
-	else
-	    return ret.intValue();
+	int ret = getWorkerIDOfCurrentThread();
+	if (ret >= 0)
+	    return ret;
+	return (int)(Thread.currentThread().threadId() % threads.length);
     }
 
     public void printCurrentQueue() {
-	int id = -1;
-	Integer workerID = lid2id.get(Thread.currentThread().getId());
-	if (null != workerID)
-	    id = lid2id.get(Thread.currentThread().getId()).intValue();
+	int id = getWorkerIDOfCurrentThread();
 
 	if (id < 0 || id >= threads.length) {
 	    System.err.println("Trying to bind to a wrong thread with id "+id);
 	    return;
 	}
 	PoolWorker worker = threads[id];
-	System.err.println("High="+worker.ownQ.high.size()+", medium="+worker.ownQ.medium.size()+", low="+worker.ownQ.low.size());
+	System.err.println("High="+(worker.ownQ.high.size()+worker.ownQ.highDL.size())
+			   +", medium="+(worker.ownQ.medium.size()+worker.ownQ.mediumDL.size())
+			   +", low="+(worker.ownQ.low.size()+worker.ownQ.lowDL.size()));
     }
 	
     public void execute(Runnable r, int priority) {
@@ -84,10 +103,7 @@ public class TaskManager {
      * @param priority
      */
     public void bindingExecute(Runnable r, int priority) {
-	int id = -1;
-	Integer workerID = lid2id.get(Thread.currentThread().getId());
-	if (null != workerID)
-	    id = lid2id.get(Thread.currentThread().getId()).intValue();
+	int id = getWorkerIDOfCurrentThread();
 	    
 	if (id < 0 || id >= threads.length) {
 	    System.err.println("Trying to bind to a wrong thread with id "+id);
@@ -99,18 +115,60 @@ public class TaskManager {
 	}
     }
 
+    /** Earliest deadline first ordering for DeadlineTasks */
+    private static final Comparator<DeadlineTask> EDF = new Comparator<DeadlineTask>() {
+	public int compare(DeadlineTask a, DeadlineTask b) {
+	    long da = a.getDeadline(), db = b.getDeadline();
+	    return da < db ? -1 : (da == db ? 0 : 1);
+	}
+    };
+
+    /**
+     * At most how many deadline tasks in a row run at a priority level while
+     * tasks without a deadline are waiting at the same level
+     */
+    public static int DEADLINE_BURST = 8;
+
+    /**
+     * Within each priority level, tasks that carry a deadline are
+     * preferred over those that do not, ordered by the closest deadline.
+     * After DEADLINE_BURST of them one task without a deadline gets its
+     * turn, so that e.g. Timer DAGs are not starved by PACKET_INs
+     */
     private class Queue {
 	LinkedList<Runnable> high;
 	LinkedList<Runnable> medium;
 	LinkedList<Runnable> low;
+	PriorityQueue<DeadlineTask> highDL;
+	PriorityQueue<DeadlineTask> mediumDL;
+	PriorityQueue<DeadlineTask> lowDL;
+	/** Deadline tasks run in a row at each priority level */
+	int[] burst = new int[Constants.PRIORITY_HIGH+1];
 
 	public Queue() {
 	    high = new LinkedList<Runnable>();
 	    medium = new LinkedList<Runnable>();
 	    low = new LinkedList<Runnable>();
+	    highDL = new PriorityQueue<DeadlineTask>(16, EDF);
+	    mediumDL = new PriorityQueue<DeadlineTask>(16, EDF);
+	    lowDL = new PriorityQueue<DeadlineTask>(16, EDF);
 	}
 
 	public void putTask(Runnable r, int priority) {
+	    if (r instanceof DeadlineTask
+		&& ((DeadlineTask)r).getDeadline() != Constants.NO_DEADLINE) {
+		DeadlineTask t = (DeadlineTask)r;
+		if (priority == Constants.PRIORITY_HIGH) {
+		    highDL.add(t);
+		}
+		if (priority == Constants.PRIORITY_MEDIUM) {
+		    mediumDL.add(t);
+		}
+		if (priority == Constants.PRIORITY_LOW) {
+		    lowDL.add(t);
+		}
+		return;
+	    }
 	    if (priority == Constants.PRIORITY_HIGH) {
 		high.addLast(r);
 	    }
@@ -123,23 +181,35 @@ public class TaskManager {
 	}
 
 	public boolean isEmpty() {
-	    return high.isEmpty() && medium.isEmpty() && low.isEmpty();
+	    return high.isEmpty() && medium.isEmpty() && low.isEmpty()
+		&& highDL.isEmpty() && mediumDL.isEmpty() && lowDL.isEmpty();
 	}
 
 	public Runnable popTask() {
-	    Runnable ret = null;
-	    if (!high.isEmpty()) {
-		ret = high.removeFirst();
-	    } else if (!medium.isEmpty()) {
-		ret = medium.removeFirst();
-	    } else if (!low.isEmpty()) {
-		ret = low.removeFirst();
+	    Runnable ret = popTask(highDL, high, Constants.PRIORITY_HIGH);
+	    if (null == ret) {
+		ret = popTask(mediumDL, medium, Constants.PRIORITY_MEDIUM);
+	    }
+	    if (null == ret) {
+		ret = popTask(lowDL, low, Constants.PRIORITY_LOW);
 	    }
 	    return ret;
 	}
 
+	private Runnable popTask(PriorityQueue<DeadlineTask> dl, LinkedList<Runnable> fifo, int priority) {
+	    if (!dl.isEmpty() && (fifo.isEmpty() || burst[priority] < DEADLINE_BURST)) {
+		burst[priority] ++;
+		return dl.poll();
+	    }
+	    burst[priority] = 0;
+	    return fifo.isEmpty() ? null : fifo.removeFirst();
+	}
+
 		
-	public int getSize() { return high.size()+medium.size()+low.size(); }
+	public int getSize() {
+	    return high.size()+medium.size()+low.size()
+		+highDL.size()+mediumDL.size()+lowDL.size();
+	}
     }
 
     private class PoolWorker extends Thread {
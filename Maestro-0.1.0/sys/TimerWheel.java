@@ -0,0 +1,258 @@
+/*
+  TimerWheel.java
+
+  Copyright (C) 2010  Rice University
+
+  This software is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This software is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this software; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package sys;
+
+import java.util.ArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A hashed timer wheel shared by everything in the system that needs
+ * timeouts, such as the Timer activated DAGs. One thread advances the
+ * wheel every TICK_MS, and hands the expired tasks to the TaskManager.
+ * Tasks of the same priority expiring in the same tick are handed over
+ * together as one task
+ */
+public class TimerWheel {
+    /** Length of one tick in milliseconds, the resolution of all timeouts */
+    public static long TICK_MS = 10;
+    /** Number of buckets, a power of two */
+    public static int WHEEL_SIZE = 512;
+
+    /** A scheduled task, which can be cancelled */
+    public class Timeout {
+	final Runnable task;
+	final int priority;
+	/** Period in ticks, 0 for a one-shot timeout */
+	final long period;
+	/** Full turns of the wheel still to wait */
+	long rounds;
+	Timeout next;
+	volatile boolean cancelled = false;
+
+	Timeout(Runnable r, int p, long periodTicks) {
+	    task = r;
+	    priority = p;
+	    period = periodTicks;
+	}
+
+	public void cancel() {
+	    cancelled = true;
+	}
+    }
+
+    /** Tasks of the same priority which expired in the same tick */
+    private static class Batch implements Runnable {
+	final ArrayList<Runnable> tasks = new ArrayList<Runnable>();
+
+	public void run() {
+	    for (int i=0;i<tasks.size();i++) {
+		tasks.get(i).run();
+	    }
+	}
+    }
+
+    private final TaskManager taskMgr;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final long tickNanos;
+    /** Timeouts scheduled since the last tick, moved into the buckets by the wheel thread */
+    private ArrayList<Timeout> pending = new ArrayList<Timeout>();
+    private ArrayList<Timeout> adding = new ArrayList<Timeout>();
+    /** Ticks passed so far, only touched by the wheel thread */
+    private long tick = 0;
+
+    /**
+     * @param tm where the expired tasks run, or null to run them in the
+     * thread of the wheel itself
+     */
+    public TimerWheel(TaskManager tm) {
+	taskMgr = tm;
+	int size = Integer.highestOneBit(Math.max(WHEEL_SIZE-1, 1)) << 1;
+	buckets = new Timeout[size];
+	mask = size-1;
+	tickNanos = Math.max(TICK_MS, 1)*1000000;
+	Thread t = new Thread(new Runnable() {
+		public void run() {
+		    turn();
+		}
+	    }, "TimerWheel");
+	t.setDaemon(true);
+	t.start();
+    }
+
+    /**
+     * Run a task once after a delay
+     * @param delay in milliseconds
+     */
+    public Timeout schedule(Runnable r, long delay, int priority) {
+	Timeout t = new Timeout(r, priority, 0);
+	add(t, toTicks(delay));
+	return t;
+    }
+
+    /**
+     * Run a task periodically. With Parameters.timerJitter set, every
+     * period is randomly stretched or shrunk by up to that percentage, so
+     * that timers started together drift apart
+     * @param delay before the first run, in milliseconds
+     * @param period in milliseconds
+     */
+    public Timeout schedulePeriodic(Runnable r, long delay, long period, int priority) {
+	Timeout t = new Timeout(r, priority, toTicks(period));
+	add(t, jitter(toTicks(delay)));
+	return t;
+    }
+
+    private long toTicks(long ms) {
+	return Math.max((ms + TICK_MS - 1) / TICK_MS, 1);
+    }
+
+    private long jitter(long ticks) {
+	long range = ticks * Parameters.timerJitter / 100;
+	if (range <= 0) {
+	    return ticks;
+	}
+	return Math.max(ticks + ThreadLocalRandom.current().nextLong(-range, range+1), 1);
+    }
+
+    /** Remember a timeout due in some ticks from the next one */
+    private void add(Timeout t, long ticks) {
+	t.rounds = ticks;
+	synchronized (this) {
+	    pending.add(t);
+	}
+    }
+
+    /**
+     * Put a timeout into its bucket, due some ticks after the current one.
+     * Only called by the wheel thread
+     * @param scanned whether the bucket of the current tick has been
+     * scanned already. If not, 0 ticks means the current one, and a bucket
+     * is scanned one more time before a full turn of the wheel is counted
+     */
+    private void place(Timeout t, long ticks, boolean scanned) {
+	long due = tick + ticks;
+	if (scanned) {
+	    t.rounds = (ticks - 1) / buckets.length;
+	} else {
+	    t.rounds = ticks / buckets.length;
+	}
+	int b = (int)(due & mask);
+	t.next = buckets[b];
+	buckets[b] = t;
+    }
+
+    private void turn() {
+	long start = System.nanoTime();
+	Runnable[] fired = new Runnable[Constants.PRIORITY_HIGH+1];
+	while (true) {
+	    long sleep = start + (tick+1)*tickNanos - System.nanoTime();
+	    if (sleep > 0) {
+		try {
+		    Thread.sleep(sleep / 1000000, (int)(sleep % 1000000));
+		} catch (InterruptedException e) {
+		}
+		continue;
+	    }
+	    tick ++;
+
+	    synchronized (this) {
+		ArrayList<Timeout> swap = adding;
+		adding = pending;
+		pending = swap;
+	    }
+	    for (int i=0;i<adding.size();i++) {
+		Timeout t = adding.get(i);
+		//. t.rounds still holds the delay in ticks, which has
+		//. partly passed since it was scheduled, so this tick counts
+		place(t, t.rounds-1, false);
+	    }
+	    adding.clear();
+
+	    //. Unlink the expired ones, and those cancelled
+	    int b = (int)(tick & mask);
+	    Timeout prev = null, t = buckets[b];
+	    while (null != t) {
+		Timeout next = t.next;
+		if (!t.cancelled && t.rounds > 0) {
+		    t.rounds --;
+		    prev = t;
+		} else {
+		    if (null == prev) {
+			buckets[b] = next;
+		    } else {
+			prev.next = next;
+		    }
+		    if (!t.cancelled) {
+			fire(t, fired);
+			if (t.period > 0) {
+			    adding.add(t);
+			}
+		    }
+		}
+		t = next;
+	    }
+	    //. Re-arm the periodic ones only now, they may land in this bucket
+	    for (int i=0;i<adding.size();i++) {
+		place(adding.get(i), jitter(adding.get(i).period), true);
+	    }
+	    adding.clear();
+
+	    for (int p=0;p<fired.length;p++) {
+		if (null != fired[p]) {
+		    execute(fired[p], p);
+		    fired[p] = null;
+		}
+	    }
+	}
+    }
+
+    /**
+     * Collect an expired task by its priority, a single one is handed
+     * over as it is, more of them go into a Batch
+     */
+    private void fire(Timeout t, Runnable[] fired) {
+	int p = Math.min(Math.max(t.priority, 0), fired.length-1);
+	if (null == fired[p]) {
+	    fired[p] = t.task;
+	    return;
+	}
+	if (!(fired[p] instanceof Batch)) {
+	    Batch batch = new Batch();
+	    batch.tasks.add(fired[p]);
+	    fired[p] = batch;
+	}
+	((Batch)fired[p]).tasks.add(t.task);
+    }
+
+    private void execute(Runnable r, int priority) {
+	if (null == taskMgr) {
+	    try {
+		r.run();
+	    } catch (Exception e) {
+		System.err.println("TimerWheel running with an exception "+e);
+		e.printStackTrace();
+	    }
+	} else {
+	    taskMgr.execute(r, priority);
+	}
+    }
+}
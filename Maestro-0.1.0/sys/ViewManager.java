@@ -21,7 +21,6 @@
 package sys;
 
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.concurrent.Semaphore;
 
 import drivers.Driver;
@@ -42,6 +41,23 @@ public class ViewManager {
     Environment global;
     
     HashMap<String, String> eventToView;
+
+    /** Integer id of every registered event class, in registration order */
+    private final HashMap<Class<?>, Integer> typeIdMap = new HashMap<Class<?>, Integer>();
+    /** Caches typeIdMap per event class, -1 for classes never registered */
+    private final ClassValue<Integer> typeIds = new ClassValue<Integer>() {
+	protected Integer computeValue(Class<?> cls) {
+	    synchronized (typeIdMap) {
+		Integer ret = typeIdMap.get(cls);
+		return null == ret ? -1 : ret;
+	    }
+	}
+    };
+    /** Slot of the view each event type is registered to, by type id */
+    private volatile int[] viewSlotOfType = new int[0];
+    /** For event types registered to concurrent views, the slot of the view
+     * of each worker, by type id; null for the others */
+    private volatile int[][] concurrentSlotsOfType = new int[0][];
     
     /** The driver for the network */
     public Driver driver;
@@ -58,6 +74,7 @@ public class ViewManager {
     	Utilities.Assert(view != null, "View "+viewName+" does not exist!");
     	Utilities.Assert(view.whetherInterested(event), "View "+viewName+" is not interested in "+event.getClass().getSimpleName());
     	eventToView.put(event.getClass().getSimpleName(), viewName);
+	registerType(event.getClass(), Environment.getSlot(viewName), null);
     }
 
     public void registerEventConcurrent(Event event, String viewName) {
@@ -67,6 +84,48 @@ public class ViewManager {
 	    Utilities.Assert(view.whetherInterested(event), "View "+viewName+"_"+i+" is not interested in "+event.getClass().getSimpleName());
 	}
 	eventToView.put(event.getClass().getSimpleName(), viewName);
+	int[] slots = new int[Parameters.divide];
+	for (int i=0;i<Parameters.divide;i++) {
+	    slots[i] = Environment.getSlot(viewName+"_"+i);
+	}
+	registerType(event.getClass(), Environment.getSlot(viewName), slots);
+    }
+
+    /**
+     * Give an event class its integer type id, and remember which view
+     * slots its events are posted to
+     */
+    private void registerType(Class<?> cls, int slot, int[] concurrentSlots) {
+	int id;
+	synchronized (typeIdMap) {
+	    Integer old = typeIdMap.get(cls);
+	    id = (null == old) ? typeIdMap.size() : old;
+	    typeIdMap.put(cls, id);
+	    int[] slots = viewSlotOfType;
+	    int[][] concurrent = concurrentSlotsOfType;
+	    if (id >= slots.length) {
+		int[] newSlots = new int[id+1];
+		System.arraycopy(slots, 0, newSlots, 0, slots.length);
+		slots = newSlots;
+		int[][] newConcurrent = new int[id+1][];
+		System.arraycopy(concurrent, 0, newConcurrent, 0, concurrent.length);
+		concurrent = newConcurrent;
+	    }
+	    slots[id] = slot;
+	    concurrent[id] = concurrentSlots;
+	    concurrentSlotsOfType = concurrent;
+	    viewSlotOfType = slots;
+	}
+	//. Some event of this class might have been posted before, and cached -1
+	typeIds.remove(cls);
+    }
+
+    /**
+     * Get the integer type id of an event
+     * @return -1 if the class of this event was never registered
+     */
+    public int getTypeId(Event e) {
+	return typeIds.get(e.getClass());
     }
     
     /** Start running the driver in the main thread */
@@ -83,6 +142,21 @@ public class ViewManager {
 		
 	driver.vm = this;
 	driver.start();
+
+	//. The driver is already accepting switches, populate the pools behind it
+	if (Parameters.lazyPools && Parameters.poolWarmUp && null != Parameters.am.memMgr) {
+	    Thread warmUp = new Thread(new Runnable() {
+		    public void run() {
+			long before = System.nanoTime();
+			Parameters.am.memMgr.warmUp();
+			Utilities.printlnDebug("Memory pools warmed up in "
+					       +(System.nanoTime()-before)/1000000+" ms");
+		    }
+		}, "PoolWarmUp");
+	    warmUp.setDaemon(true);
+	    warmUp.setPriority(Thread.MIN_PRIORITY);
+	    warmUp.start();
+	}
     }
     
     /**
@@ -111,49 +185,49 @@ public class ViewManager {
      * @param e The event to post
      */
     public void postEvent(Event e) {
-    	String viewName = eventToView.get(e.getClass().getSimpleName());
-    	if (viewName == null) {
+	int type = getTypeId(e);
+	if (type < 0) {
 	    return;
-    	}
+	}
+	int slot = viewSlotOfType[type];
     	
     	//. TODO: currently trigger the DAG for each event, no batching yet
-    	View v = global.getView(viewName);
+    	View v = global.getView(slot);
     	if (v == null) {
 	    return;
     	}
     	
-    	if (v.processEvent(e)) {
-	    HashSet<String> trigger = new HashSet<String>();
-	    trigger.add(viewName);
-	    am.triggerDag(global, trigger);
+    	long deadline = process(v, e);
+    	if (View.UNCHANGED != deadline) {
+	    am.triggerDag(global, slot, deadline);
     	}
     }
 
     public void postEventConcurrent(Event e, int which) {
-	String viewName = eventToView.get(e.getClass().getSimpleName());
-	if (viewName == null) {
+	int type = getTypeId(e);
+	if (type < 0) {
 	    return;
 	}
 
-	boolean whetherConcurrentEnabled = true;
-
 	//. TODO: currently trigger the DAG for each event, no batching yet
-	View v = global.getView(viewName+"_"+which);
+	int[] concurrentSlots = concurrentSlotsOfType[type];
+	int slot = -1;
+	View v = null;
+	if (null != concurrentSlots && which >= 0 && which < concurrentSlots.length) {
+	    slot = concurrentSlots[which];
+	    v = global.getView(slot);
+	}
 	if (v == null) {
-	    whetherConcurrentEnabled = false;
-	    v = global.getView(viewName);
+	    slot = viewSlotOfType[type];
+	    v = global.getView(slot);
 	    if (v == null) {
 		return;
 	    }
 	}
 
-	if (v.processEvent(e)) {
-	    HashSet<String> trigger = new HashSet<String>();
-	    if (whetherConcurrentEnabled)
-		trigger.add(viewName+"_"+which);
-	    else
-		trigger.add(viewName);
-	    am.triggerDag(global, trigger);
+	long deadline = process(v, e);
+	if (View.UNCHANGED != deadline) {
+	    am.triggerDag(global, slot, deadline);
 	}
     }
     
@@ -168,33 +242,62 @@ public class ViewManager {
     	if (viewName == null) {
 	    return;
     	}
+	int slot = Environment.findSlot(viewName);
+	if (slot < 0) {
+	    return;
+	}
     	
     	//. TODO: currently trigger the DAG for each event, no batching yet
-    	View v = global.getView(viewName);
+    	View v = global.getView(slot);
     	if (v == null) {
 	    return;
     	}
     	
-    	if (v.processEvent(e)) {
-	    HashSet<String> trigger = new HashSet<String>();
-	    trigger.add(viewName);
-	    am.triggerDag(global, trigger);
+    	long deadline = process(v, e);
+    	if (View.UNCHANGED != deadline) {
+	    am.triggerDag(global, slot, deadline);
     	}
     }
     
+    /**
+     * Let a view process an event, counting it as a change so that
+     * optimistic DAGs which read the view see it
+     * @return the deadline to trigger the DAGs with, View.UNCHANGED if none
+     */
+    private long process(View v, Event e) {
+	long ret = v.processEventDeadline(e);
+	v.changed();
+	return ret;
+    }
+
+    /**
+     * Trigger the DAGs of a global view instance whose events were
+     * batched up without a trigger, e.g. flushed by a timer
+     */
+    public void triggerView(View v, long deadline) {
+	int n = Environment.getNumSlots();
+	for (int slot=0;slot<n;slot++) {
+	    if (global.getView(slot) == v) {
+		am.triggerDag(global, slot, deadline);
+		return;
+	    }
+	}
+    }
+    
     public void postEventWithoutTrigger(Event e) {
-    	String viewName = eventToView.get(e.getClass().getSimpleName());
-    	if (viewName == null) {
+	int type = getTypeId(e);
+	if (type < 0) {
 	    return;
-    	}
+	}
     	
     	//. TODO: currently trigger the DAG for each event, no batching yet
-    	View v = global.getView(viewName);
+    	View v = global.getView(viewSlotOfType[type]);
     	if (v == null) {
 	    return;
     	}
     	
     	v.processEvent(e);
+    	v.changed();
     }
 
     public void timerStartDag(DAG dag) {
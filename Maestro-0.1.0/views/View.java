@@ -22,9 +22,11 @@ package views;
 
 import java.io.Serializable;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.StampedLock;
 
 import drivers.*;
 import events.*;
+import sys.Constants;
 
 /**
  * The abstract class for a View in Maestro
@@ -47,21 +49,47 @@ public abstract class View implements Serializable {
     /** Whether multiple view instances should be created and accessed by concurrent DAGs */
     boolean concurrent = false;
 
+    /**
+     * Whether this view is in read/write mode, marked by ReadWrite in the
+     * Views section of the DAG configuration. Meant for views with many
+     * readers, such as lookup tables. Otherwise reads are not locked and
+     * writes are exclusive through sem
+     */
+    private boolean readWrite = false;
+    private transient StampedLock rwLock = new StampedLock();
+
+    /**
+     * Number of times a DAG committed this view to the global environment,
+     * or an event was processed by it. Optimistic DAGs compare it to tell
+     * whether a view they read has changed
+     */
+    private volatile long commits = 0;
+
+    public void setReadWrite(boolean rw) {
+	readWrite = rw;
+    }
+
+    public boolean isReadWrite() {
+	return readWrite;
+    }
+
     public void acquireRead() {
-	//. TODO: Implementation undone yet
-	/*try {
-	  sem.acquire();
-	  } catch (InterruptedException e) {
-	  e.printStackTrace();
-	  }*/
+	if (readWrite) {
+	    rwLock.asReadLock().lock();
+	}
     }
 	
     public void releaseRead() {
-	//. TODO: Implementation undone yet
-	//sem.release();
+	if (readWrite) {
+	    rwLock.asReadLock().unlock();
+	}
     }
 	
     public void acquireWrite() {
+	if (readWrite) {
+	    rwLock.asWriteLock().lock();
+	    return;
+	}
 	try {
 	    sem.acquire();
 	} catch (InterruptedException e) {
@@ -70,8 +98,29 @@ public abstract class View implements Serializable {
     }
 	
     public void releaseWrite() {
+	if (readWrite) {
+	    rwLock.asWriteLock().unlock();
+	    return;
+	}
 	sem.release();
     }
+
+    /**
+     * Start an optimistic read, which takes no lock at all. The values read
+     * are only usable if validate(stamp) holds afterwards, otherwise the
+     * read must be redone between acquireRead and releaseRead
+     * @return 0 if this view is not in read/write mode, or is being written
+     */
+    public long tryOptimisticRead() {
+	return readWrite ? rwLock.tryOptimisticRead() : 0;
+    }
+
+    /**
+     * @return whether no write happened since tryOptimisticRead returned stamp
+     */
+    public boolean validate(long stamp) {
+	return 0 != stamp && rwLock.validate(stamp);
+    }
 	
     public View() {
 	sem = new Semaphore(1);
@@ -97,6 +146,51 @@ public abstract class View implements Serializable {
      */
     public abstract void commit(Driver driver);
 
+    /**
+     * Discard this view without committing it, because the DAG instance
+     * which produced it was aborted. Views holding pooled events should
+     * free them here
+     */
+    public void abort() {
+    }
+
+    /** Count one more commit of this view, called by the ApplicationManager */
+    public void committed() {
+	commits ++;
+    }
+
+    /** Count one change by an event, called by the ViewManager */
+    public void changed() {
+	commits ++;
+    }
+
+    public long getCommits() {
+	return commits;
+    }
+
+    /**
+     * The deadline (System.nanoTime() based) of the work which the last
+     * change of this view is going to trigger
+     * @return Constants.NO_DEADLINE if this view does not carry deadlines
+     */
+    public long getDeadline() {
+	return Constants.NO_DEADLINE;
+    }
+
+    /** Returned by processEventDeadline when the view did not change */
+    public static final long UNCHANGED = Long.MIN_VALUE;
+
+    /**
+     * Process one event, and get the deadline of the work it triggers in the
+     * same step. Views whose deadline may be changed by concurrent events
+     * must override this, as getDeadline() called afterwards could already
+     * see the deadline of another change
+     * @return UNCHANGED if DAGs need not be triggered, the deadline otherwise
+     */
+    public long processEventDeadline(Event e) {
+	return processEvent(e) ? getDeadline() : UNCHANGED;
+    }
+
     /**
      * Let this view print out its content to System.out
      * How to format is done by the view
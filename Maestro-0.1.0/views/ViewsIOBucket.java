@@ -20,23 +20,31 @@
 
 package views;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.concurrent.Semaphore;
 
 /**
  * The data structure that holds arbitrary number of views for I/O
  * All positions start from 0
+ * A bucket is filled by one application instance at a time, so it
+ * is a plain array without locking
  * 
  * @author Zheng Cai
  */
 public class ViewsIOBucket {
-    private Semaphore sem;
-    private HashMap<Integer, View> views;
+    private View[] views;
+    private int size;
 	
     public ViewsIOBucket() {
-	views = new HashMap<Integer, View>();
-	sem = new Semaphore(1);
+	this(4);
+    }
+
+    /**
+     * @param capacity the number of positions expected, the bucket grows if needed
+     */
+    public ViewsIOBucket(int capacity) {
+	views = new View[capacity];
+	size = 0;
     }
 	
     /**
@@ -47,14 +55,18 @@ public class ViewsIOBucket {
      * @return the previous view instance in this, null if not existed
      */
     public View addView(int pos, View view) {
-	try {
-	    sem.acquire();
-	} catch (InterruptedException e) {
-	    System.err.println("ViewsIOBucket_addViews: Inturrepted sem.acquire()");
-	    e.printStackTrace();
+	if (pos >= views.length) {
+	    View[] newViews = new View[Math.max(pos+1, views.length*2)];
+	    System.arraycopy(views, 0, newViews, 0, views.length);
+	    views = newViews;
+	}
+	View ret = views[pos];
+	views[pos] = view;
+	if (null == ret && null != view) {
+	    size ++;
+	} else if (null != ret && null == view) {
+	    size --;
 	}
-	View ret = views.put(pos, view);
-	sem.release();
 	return ret;
     }
 	
@@ -64,15 +76,10 @@ public class ViewsIOBucket {
      * @return the removed view instance, null if not existed
      */
     public View removeView(int pos) {
-	try {
-	    sem.acquire();
-	} catch (InterruptedException e) {
-	    System.err.println("ViewsIOBucket_removeViews: Inturrepted sem.acquire()");
-	    e.printStackTrace();
+	if (pos >= views.length) {
+	    return null;
 	}
-	View ret = views.remove(pos);
-	sem.release();
-	return ret;
+	return addView(pos, null);
     }
 	
     /** 
@@ -81,7 +88,7 @@ public class ViewsIOBucket {
      * @return the view instance, null if not existed
      */
     public View getView(int pos) {
-	return views.get(pos);
+	return pos < views.length ? views[pos] : null;
     }
 	
     /**
@@ -89,7 +96,13 @@ public class ViewsIOBucket {
      * @return the collection of view instances
      */
     public Collection<View> getAllViews() {
-    	return views.values();
+	ArrayList<View> ret = new ArrayList<View>(size);
+	for (int i=0;i<views.length;i++) {
+	    if (null != views[i]) {
+		ret.add(views[i]);
+	    }
+	}
+    	return ret;
     }
     
     /**
@@ -97,6 +110,6 @@ public class ViewsIOBucket {
      * @return the size of the bucket
      */
     public int getSize() {
-    	return views.size();
+    	return size;
     }
 }
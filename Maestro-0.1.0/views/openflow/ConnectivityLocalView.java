@@ -101,6 +101,26 @@ public class ConnectivityLocalView extends View {
      * @return null if link A-B does not exist
      */
     public Link getLink(long A, long B) {
+	long stamp = tryOptimisticRead();
+	if (0 != stamp) {
+	    try {
+		Link ret = lookup(A, B);
+		if (validate(stamp)) {
+		    return ret;
+		}
+	    } catch (RuntimeException e) {
+		//. Raced with a writer, read again under the read lock
+	    }
+	}
+	acquireRead();
+	try {
+	    return lookup(A, B);
+	} finally {
+	    releaseRead();
+	}
+    }
+
+    private Link lookup(long A, long B) {
 	HashMap<Long, Link> cA = links.get(A);
 	if (cA == null) {
 	    return null;
@@ -110,6 +130,7 @@ public class ConnectivityLocalView extends View {
 	
     public Collection<Link> getAllLinks() {
 	LinkedList<Link> result = new LinkedList<Link>();
+	acquireRead();
 	for (long A : links.keySet()) {
 	    HashMap<Long, Link> col = links.get(A);
 	    if (col != null) {
@@ -118,12 +139,14 @@ public class ConnectivityLocalView extends View {
 		}
 	    }
 	}
+	releaseRead();
 	return result;
     }
 	
     public int getNodesNum() {
 	int result = 0;
 	HashSet<Long> seen = new HashSet<Long>();
+	acquireRead();
 	for (long A : links.keySet()) {
 	    HashMap<Long, Link> col = links.get(A);
 	    if (col != null) {
@@ -140,6 +163,7 @@ public class ConnectivityLocalView extends View {
 		}
 	    }
 	}
+	releaseRead();
 	return result;
     }
 	
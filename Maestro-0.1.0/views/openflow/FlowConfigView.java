@@ -26,6 +26,7 @@ import java.util.LinkedList;
 import drivers.Driver;
 import events.Event;
 import events.openflow.FlowModEvent;
+import sys.Parameters;
 import views.View;
 
 /**
@@ -57,6 +58,14 @@ public class FlowConfigView extends View {
 	configs.clear();
     }
 
+    @Override
+	public void abort() {
+	if (Parameters.useMemoryMgnt) {
+	    Parameters.am.memMgr.freeEvents(configs.values());
+	}
+	configs.clear();
+    }
+
     @Override
 	public boolean processEvent(Event e) {
 	return false;
@@ -43,6 +43,11 @@ public class FlowsInView extends View {
     }
 	
     public LinkedList<FlowIn> queue;
+
+    /** Where the batch came from, set when its processing cost should be
+     * reported back with PacketsInView.batchProcessed */
+    public PacketsInView source = null;
+    public long batchStart = 0;
 	
     public FlowsInView() {
 	queue = new LinkedList<FlowIn>();
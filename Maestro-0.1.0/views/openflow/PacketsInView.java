@@ -23,6 +23,8 @@ package views.openflow;
 import java.util.LinkedList;
 
 import drivers.Driver;
+import sys.AdaptiveBatcher;
+import sys.Constants;
 import sys.Parameters;
 import views.View;
 import events.Event;
@@ -31,15 +33,34 @@ import events.openflow.PacketInEvent;
 /**
  * Contains a number of PacketInEvent.
  * The inputbatching behavior is currently realized in this view.
+ * With Parameters.batchLatencyTarget set, the batch size follows an
+ * AdaptiveBatcher, and a batch still incomplete after half of the target
+ * is flushed by the TimerWheel.
  * @author Zheng Cai
  */
 public class PacketsInView extends View {
     public LinkedList<LinkedList<PacketInEvent>> queues;
     public LinkedList<PacketInEvent> incoming;
+
+    /** Earliest deadline among the events in incoming */
+    private long incomingDeadline = Constants.NO_DEADLINE;
+
+    /** Earliest deadline of the batch most recently moved to queues */
+    private long batchDeadline = Constants.NO_DEADLINE;
+
+    /**
+     * Null when batches are cut at the fixed Parameters.batchInputNum, and
+     * in a deserialized copy, which is never fed events
+     */
+    private final transient AdaptiveBatcher batcher;
+    /** When the first event in incoming arrived, and which batch that was */
+    private long batchStart = 0;
+    private long batchId = 0;
     
     public PacketsInView() {
 	queues = new LinkedList<LinkedList<PacketInEvent>>();
 	incoming = new LinkedList<PacketInEvent>();
+	batcher = Parameters.batchLatencyTarget > 0 ? new AdaptiveBatcher(Parameters.batchLatencyTarget) : null;
     }
 
     @Override
@@ -49,31 +70,105 @@ public class PacketsInView extends View {
 
     @Override
 	public boolean processEvent(Event e) {
+	return UNCHANGED != processEventDeadline(e);
+    }
+
+    @Override
+	public long processEventDeadline(Event e) {
 	if (!(e instanceof PacketInEvent)) {
-	    return false;
-	}
-	long before = 0;
-	if (Parameters.measurePerf) {
-	    before = System.nanoTime();
+	    return UNCHANGED;
 	}
 
 	synchronized(incoming) {
-	    incoming.addLast((PacketInEvent)e);
+	    PacketInEvent pi = (PacketInEvent)e;
+	    if (incoming.isEmpty() && null != batcher) {
+		startBatch();
+	    }
+	    incoming.addLast(pi);
+	    if (pi.deadline < incomingDeadline) {
+		incomingDeadline = pi.deadline;
+	    }
 	    int queueSize = Parameters.am.taskMgr.getQueueSize();
+	    int limit = null == batcher ? Parameters.batchInputNum : batcher.getLimit();
 		
-	    if (incoming.size() >= Parameters.batchInputNum || queueSize <= 5) {
-		synchronized (queues) {
-		    LinkedList<PacketInEvent> toAdd = new LinkedList<PacketInEvent>();
-		    toAdd.addAll(incoming);
-		    queues.addLast(toAdd);
-		}
-		incoming.clear();
-		return true;
+	    if (incoming.size() >= limit || queueSize <= AdaptiveBatcher.IDLE_QUEUE) {
+		return moveIncoming(queueSize, false);
 	    } else {
-		return false;
+		return UNCHANGED;
 	    }
 	}
     }
+
+    /** Remember when the batch began, and arm its flush timer. Must hold incoming */
+    private void startBatch() {
+	batchStart = System.nanoTime();
+	final long id = ++ batchId;
+	if (null == Parameters.am || null == Parameters.am.timers) {
+	    return;
+	}
+	long delay = Math.max(Parameters.batchLatencyTarget/2000000, 1);
+	Parameters.am.timers.schedule(new Runnable() {
+		public void run() {
+		    flushTimed(id);
+		}
+	    }, delay, Constants.PRIORITY_HIGH);
+    }
+
+    /** The flush timer of a batch expired, hand it over if still incomplete */
+    private void flushTimed(long id) {
+	long deadline;
+	synchronized(incoming) {
+	    if (id != batchId || incoming.isEmpty()) {
+		return;
+	    }
+	    deadline = moveIncoming(Parameters.am.taskMgr.getQueueSize(), true);
+	}
+	Parameters.am.vm.triggerView(this, deadline);
+    }
+
+    /**
+     * Move the events in incoming to queues as one batch. Must hold incoming
+     * @return the earliest deadline in the batch
+     */
+    private long moveIncoming(int queueSize, boolean timed) {
+	synchronized (queues) {
+	    LinkedList<PacketInEvent> toAdd = new LinkedList<PacketInEvent>();
+	    toAdd.addAll(incoming);
+	    queues.addLast(toAdd);
+	}
+	if (null != batcher) {
+	    batcher.flushed(incoming.size(), System.nanoTime() - batchStart, queueSize, timed);
+	    //. The pending timer no longer matches any batch
+	    batchId ++;
+	}
+	incoming.clear();
+	batchDeadline = incomingDeadline;
+	incomingDeadline = Constants.NO_DEADLINE;
+	return batchDeadline;
+    }
+
+    /** Whether the DAGs should report their processing cost with batchProcessed */
+    public boolean isAdaptive() {
+	return null != batcher;
+    }
+
+    /**
+     * A DAG finished processing a batch taken from queues
+     * @param n the number of events in it
+     * @param nanos how long that took
+     */
+    public void batchProcessed(int n, long nanos) {
+	if (null != batcher) {
+	    batcher.processed(n, nanos);
+	}
+    }
+    
+    @Override
+	public long getDeadline() {
+	synchronized(incoming) {
+	    return batchDeadline;
+	}
+    }
     
     @Override
 	public boolean whetherInterested(Event e) {
@@ -27,6 +27,7 @@ import drivers.Driver;
 
 import events.Event;
 import events.openflow.PacketOutEvent;
+import sys.Parameters;
 import views.View;
 
 /**
@@ -58,6 +59,14 @@ public class PacketsOutView extends View {
 	pkts.clear();
     }
 
+    @Override
+	public void abort() {
+	if (Parameters.useMemoryMgnt) {
+	    Parameters.am.memMgr.freeEvents(pkts.values());
+	}
+	pkts.clear();
+    }
+
     @Override
 	public boolean processEvent(Event e) {
 	return true;
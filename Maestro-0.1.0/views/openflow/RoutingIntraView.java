@@ -73,6 +73,26 @@ public class RoutingIntraView extends View {
      * @return null if route A-B does not exist
      */
     public Route getNextHop(long A, long B) {
+	long stamp = tryOptimisticRead();
+	if (0 != stamp) {
+	    try {
+		Route ret = lookup(A, B);
+		if (validate(stamp)) {
+		    return ret;
+		}
+	    } catch (RuntimeException e) {
+		//. Raced with a writer, read again under the read lock
+	    }
+	}
+	acquireRead();
+	try {
+	    return lookup(A, B);
+	} finally {
+	    releaseRead();
+	}
+    }
+
+    private Route lookup(long A, long B) {
 	HashMap<Long, Route> cA = routes.get(A);
 	if (cA == null) {
 	    return null;